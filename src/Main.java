@@ -1,16 +1,20 @@
 import ast.ASTPrinter;
 import ast.Program;
 import gen.CodeGenerator;
+import gen.Peephole;
 import lexer.Scanner;
 import lexer.Token;
+import lexer.TokenBuffer;
 import lexer.Tokeniser;
 import parser.Parser;
 import sem.SemanticAnalyzer;
+import util.Diagnostics;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 
 
 /**
@@ -32,15 +36,98 @@ public class Main {
     }
 
     private static void usage() {
-        System.out.println("Usage: java "+Main.class.getSimpleName()+" pass inputfile outputfile");
+        System.out.println("Usage: java "+Main.class.getSimpleName()+" pass inputfile outputfile [options]");
         System.out.println("where pass is either: -lexer, -parser, -ast, -sem or -gen");
+        System.out.println("and options are: -pipeline (lex on a separate thread, ahead of the parser)");
+        System.out.println("                 -errorlimit n (stop parsing after n errors, and report at most n)");
+        System.out.println("                 -parallel (parse function bodies in parallel)");
+        System.out.println("                 -fused (resolve names and check types in a single pass)");
+        System.out.println("                 -parallelsem (check function bodies in parallel, in a single pass)");
+        System.out.println("                 -O (peephole optimise the generated code)");
+        System.out.println("                 -peephole rule,... (the same with only these rules, out of");
+        System.out.println("                     "+String.join(", ", Peephole.ruleNames())+")");
+        System.out.println("                 -colour (allocate registers by graph colouring, not linear scan)");
         System.exit(-1);
     }
 
+    private static boolean pipeline = false;
+    private static int errorLimit = 0;
+    private static boolean parallel = false;
+    private static boolean fused = false;
+    private static boolean parallelSem = false;
+    private static Peephole peephole = null;
+    private static boolean colour = false;
+
+    // errors are collected here and printed at the end of each phase
+    private static final Diagnostics diagnostics = new Diagnostics();
+
+    private static Parser parser(Tokeniser tokeniser) {
+        TokenBuffer tokens = pipeline ? tokeniser.pipelinedTokenBuffer() : tokeniser.tokenBuffer();
+        Parser parser = new Parser(tokens);
+        parser.setErrorLimit(errorLimit);
+        parser.setParallel(parallel);
+        return parser;
+    }
+
+    private static Program parse(Parser parser) {
+        try {
+            return parser.parse();
+        } finally {
+            diagnostics.flush();
+        }
+    }
+
+    private static SemanticAnalyzer analyzer() {
+        SemanticAnalyzer sem = new SemanticAnalyzer();
+        sem.setFused(fused);
+        sem.setParallel(parallelSem);
+        sem.setDiagnostics(diagnostics);
+        return sem;
+    }
+
+    private static int analyze(SemanticAnalyzer sem, Program programAst) {
+        try {
+            return sem.analyze(programAst);
+        } finally {
+            diagnostics.flush();
+        }
+    }
+
     public static void main(String[] args) {
 
-        if (args.length != 3)
+        if (args.length < 3)
             usage();
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "-pipeline": pipeline = true; break;
+                case "-parallel": parallel = true; break;
+                case "-fused": fused = true; break;
+                case "-parallelsem": parallelSem = true; break;
+                case "-O": peephole = new Peephole(); break;
+                case "-colour": colour = true; break;
+                case "-peephole":
+                    if (++i == args.length)
+                        usage();
+                    try {
+                        peephole = new Peephole(Arrays.asList(args[i].split(",")));
+                    } catch (IllegalArgumentException e) {
+                        usage();
+                    }
+                    break;
+                case "-errorlimit":
+                    if (++i == args.length)
+                        usage();
+                    try {
+                        errorLimit = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        usage();
+                    }
+                    break;
+                default:
+                    usage();
+                    break;
+            }
+        }
 
         Mode mode = null;
         switch (args[0]) {
@@ -64,26 +151,32 @@ public class Main {
             return;
         }
 
+        diagnostics.setLimit(errorLimit);
         Tokeniser tokeniser = new Tokeniser(scanner);
+        tokeniser.setDiagnostics(diagnostics);
         if (mode == Mode.LEXER) {
-            for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken()) 
+            // the errors come out between the tokens, as they are found
+            for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken()) {
+                diagnostics.flush();
             	System.out.println(t);
+            }
+            diagnostics.flush();
             if (tokeniser.getErrorCount() == 0)
         		System.out.println("Lexing: pass");
     	    else
         		System.out.println("Lexing: failed ("+tokeniser.getErrorCount()+" errors)");	
             System.exit(tokeniser.getErrorCount() == 0 ? PASS : LEXER_FAIL);
         } else if (mode == Mode.PARSER) {
-		    Parser parser = new Parser(tokeniser);
-		    parser.parse();
+		    Parser parser = parser(tokeniser);
+		    parse(parser);
 		    if (parser.getErrorCount() == 0)
 		    	System.out.println("Parsing: pass");
 		    else
 		    	System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
 		    System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
         }  else if (mode == Mode.AST) {
-            Parser parser = new Parser(tokeniser);
-            Program programAst = parser.parse();
+            Parser parser = parser(tokeniser);
+            Program programAst = parse(parser);
             if (parser.getErrorCount() == 0) {
                 System.out.println("Parsing: pass");
                 System.out.println("Printing out AST:");
@@ -102,11 +195,11 @@ public class Main {
                 System.out.println("Parsing: failed ("+parser.getErrorCount()+" errors)");
             System.exit(parser.getErrorCount() == 0 ? PASS : PARSER_FAIL);
         } else if (mode == Mode.SEMANTICANALYSIS) {
-            Parser parser = new Parser(tokeniser);
-            Program programAst = parser.parse();
+            Parser parser = parser(tokeniser);
+            Program programAst = parse(parser);
             if (parser.getErrorCount() == 0) {
-                SemanticAnalyzer sem = new SemanticAnalyzer();
-                int errors = sem.analyze(programAst);
+                SemanticAnalyzer sem = analyzer();
+                int errors = analyze(sem, programAst);
                 if (errors == 0)
                     System.out.println("Semantic analysis: Pass");
                 else
@@ -115,15 +208,17 @@ public class Main {
             } else
                 System.exit(PARSER_FAIL);
         } else if (mode == Mode.GEN) {
-            Parser parser = new Parser(tokeniser);
-            Program programAst = parser.parse();
+            Parser parser = parser(tokeniser);
+            Program programAst = parse(parser);
             if (parser.getErrorCount() > 0)
                 System.exit(PARSER_FAIL);
-            SemanticAnalyzer sem = new SemanticAnalyzer();
-            int errors = sem.analyze(programAst);
+            SemanticAnalyzer sem = analyzer();
+            int errors = analyze(sem, programAst);
             if (errors > 0)
                 System.exit(SEM_FAIL);
-            CodeGenerator codegen = new CodeGenerator();
+            CodeGenerator codegen = new CodeGenerator(sem.getStructs());
+            codegen.setPeephole(peephole);
+            codegen.setGraphColouring(colour);
             try {
                 codegen.emitProgram(programAst, outputFile);
             } catch (FileNotFoundException e) {
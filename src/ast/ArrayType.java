@@ -5,7 +5,8 @@ public class ArrayType implements Type {
 	public final Type type;
 	public final int length;
 
-	public ArrayType(Type t, int len) {
+	// use Types.array, which gives the canonical instance
+	ArrayType(Type t, int len) {
 		type = t;
 		length = len;
 	}
@@ -13,15 +14,4 @@ public class ArrayType implements Type {
 	public <T> T accept(ASTVisitor<T> v) {
 		return v.visitArrayType(this);
 	}
-
-	@Override
-	public boolean Equals(Type other) {
-		if(other instanceof ArrayType) {
-			ArrayType o = (ArrayType) other;
-			//TODO: should we really be checking for length?
-			if(o.length!=length) {return false;}
-			return (type.Equals(o.type));
-		}
-		return false;
-	}
 }
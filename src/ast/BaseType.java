@@ -6,9 +6,4 @@ public enum BaseType implements Type {
 	public <T> T accept(ASTVisitor<T> v) {
 		return v.visitBaseType(this);
 	}
-
-	@Override
-	public boolean Equals(Type other) {
-		return other == this;
-	}
 }
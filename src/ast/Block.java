@@ -8,8 +8,8 @@ public class Block extends Stmt {
 	public final List<Stmt> code;
 
 	public Block(List<VarDecl> e, List<Stmt> c) {
-		vars = e;
-		code = c;
+		vars = NodeList.copyOf(e);
+		code = NodeList.copyOf(c);
 	}
 
 	public <T> T accept(ASTVisitor<T> v) {
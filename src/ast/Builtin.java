@@ -0,0 +1,42 @@
+package ast;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * The built-in functions, declared once: the name analysis binds calls to their
+ * declarations, and the code generator turns a call to one of them into the
+ * syscall given here rather than a jump.
+ */
+public enum Builtin {
+	// in the order they are declared, after the global variables
+	PRINT_S(BaseType.VOID, "print_s", 4, new VarDecl(Types.pointer(BaseType.CHAR), "s")),
+	PRINT_I(BaseType.VOID, "print_i", 1, new VarDecl(BaseType.INT, "i")),
+	PRINT_C(BaseType.VOID, "print_c", 4, new VarDecl(BaseType.CHAR, "c")),
+	READ_C(BaseType.CHAR, "read_c", 12),
+	READ_I(BaseType.INT, "read_i", 5),
+	MCMALLOC(Types.pointer(BaseType.VOID), "mcmalloc", 9, new VarDecl(BaseType.INT, "size"));
+
+	private static final Builtin[] ALL = values();
+
+	public final FunDecl decl;
+	public final int syscall; // the service number, in $v0
+
+	Builtin(Type type, String name, int syscall, VarDecl... params) {
+		this.decl = new FunDecl(type, name, Arrays.asList(params),
+				new Block(Collections.<VarDecl>emptyList(), Collections.<Stmt>emptyList()));
+		this.syscall = syscall;
+	}
+
+	/*
+	 * The built-in declared by fd, or null if it is not one.
+	 */
+	public static Builtin of(FunDecl fd) {
+		for (Builtin b : ALL) {
+			if (b.decl == fd) {
+				return b;
+			}
+		}
+		return null;
+	}
+}
@@ -1,12 +1,20 @@
 package ast;
 
+import util.NameTable;
+
 public class FieldAccessExpr extends Expr {
 	public final Expr struct;
 	public final String field;
+	public final int fieldId; // see util.NameTable
 
 	public FieldAccessExpr(Expr s, String f) {
+		this(s, NameTable.intern(f));
+	}
+
+	public FieldAccessExpr(Expr s, int f) {
 		struct = s;
-		field = f;
+		fieldId = f;
+		field = NameTable.name(f);
 	}
 
 	public <T> T accept(ASTVisitor<T> v) {
@@ -1,15 +1,23 @@
 package ast;
 
+import util.NameTable;
+
 import java.util.*;
 
 public class FunCallExpr extends Expr {
 	public final String name;
+	public final int nameId; // see util.NameTable
 	public FunDecl fd; // to be filled in by the name analyser
 	public List<Expr> args;
 
 	public FunCallExpr(String name, List<Expr> a) {
-		this.name = name;
-		args = a;
+		this(NameTable.intern(name), a);
+	}
+
+	public FunCallExpr(int nameId, List<Expr> a) {
+		this.nameId = nameId;
+		this.name = NameTable.name(nameId);
+		args = NodeList.copyOf(a);
 	}
 
 	public <T> T accept(ASTVisitor<T> v) {
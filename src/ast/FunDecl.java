@@ -1,17 +1,25 @@
 package ast;
 
+import util.NameTable;
+
 import java.util.List;
 
 public class FunDecl implements ASTNode {
     public final Type type;
     public final String name;
+    public final int nameId; // see util.NameTable
     public final List<VarDecl> params;
     public final Block block;
 
     public FunDecl(Type type, String name, List<VarDecl> params, Block block) {
+	    this(type, NameTable.intern(name), params, block);
+    }
+
+    public FunDecl(Type type, int nameId, List<VarDecl> params, Block block) {
 	    this.type = type;
-	    this.name = name;
-	    this.params = params;
+	    this.nameId = nameId;
+	    this.name = NameTable.name(nameId);
+	    this.params = NodeList.copyOf(params);
 	    this.block = block;
     }
 
@@ -0,0 +1,40 @@
+package ast;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * The lists of the AST: immutable, and backed by an array of exactly their size, so
+ * that get(i) is constant time and a list costs one object and one array.
+ */
+public final class NodeList<T> extends AbstractList<T> implements RandomAccess {
+
+	private static final NodeList<?> EMPTY = new NodeList<Object>(new Object[0]);
+
+	private final Object[] elements;
+
+	private NodeList(Object[] elements) {
+		this.elements = elements;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> NodeList<T> copyOf(Collection<? extends T> c) {
+		if (c instanceof NodeList)
+			return (NodeList<T>) c;
+		if (c.isEmpty())
+			return (NodeList<T>) EMPTY;
+		return new NodeList<T>(c.toArray());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		return (T) elements[index];
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+}
@@ -2,9 +2,10 @@ package ast;
 
 public class PointerType implements Type {
 
-	public Type pointerToType;
+	public final Type pointerToType;
 
-	public PointerType(Type p) {
+	// use Types.pointer, which gives the canonical instance
+	PointerType(Type p) {
 		pointerToType = p;
 	}
 
@@ -12,17 +13,6 @@ public class PointerType implements Type {
 		return v.visitPointerType(this);
 	}
 
-	@Override
-	public boolean Equals(Type other) {
-		
-		if(other instanceof PointerType) {
-			PointerType o = (PointerType) other;
-			return (pointerToType.Equals(o.pointerToType));
-		}
-		return false;
-	}
-	
-
     
     public String toString() {
     	String build = super.toString();
@@ -9,9 +9,9 @@ public class Program implements ASTNode {
     public final List<FunDecl> funDecls;
 
     public Program(List<StructTypeDecl> structTypeDecls, List<VarDecl> varDecls, List<FunDecl> funDecls) {
-        this.structTypeDecls = structTypeDecls;
-	    this.varDecls = varDecls;
-	    this.funDecls = funDecls;
+        this.structTypeDecls = NodeList.copyOf(structTypeDecls);
+	    this.varDecls = NodeList.copyOf(varDecls);
+	    this.funDecls = NodeList.copyOf(funDecls);
     }
 
     public <T> T accept(ASTVisitor<T> v) {
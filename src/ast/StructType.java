@@ -1,23 +1,19 @@
 package ast;
 
+import util.NameTable;
+
 public class StructType implements Type {
 
-	public String structType;
+	public final String structType;
+	public final int structId; // see util.NameTable
 
-	public StructType(String s) {
-		structType = s;
+	// use Types.struct, which gives the canonical instance
+	StructType(int id) {
+		structId = id;
+		structType = NameTable.name(id);
 	}
 
 	public <T> T accept(ASTVisitor<T> v) {
 		return v.visitStructType(this);
 	}
-
-	@Override
-	public boolean Equals(Type other) {
-		if(other instanceof StructType) {
-			StructType o = (StructType) other;
-			return structType.equals(o.structType);
-		}
-		return false;
-	}
 }
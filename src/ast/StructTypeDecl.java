@@ -9,7 +9,7 @@ public class StructTypeDecl implements ASTNode {
     
     public StructTypeDecl(StructType decl, List<VarDecl> vars) {
     	structDecl = decl;
-    	variables = vars;
+    	variables = NodeList.copyOf(vars);
     }	
 	
     public <T> T accept(ASTVisitor<T> v) {
@@ -6,6 +6,9 @@ public interface Type extends ASTNode {
     public <T> T accept(ASTVisitor<T> v);
     
     
-    public boolean Equals(Type other);
+    // types are canonical (see Types), so equal types are the same object
+    public default boolean Equals(Type other) {
+        return this == other;
+    }
 
 }
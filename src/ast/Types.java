@@ -0,0 +1,100 @@
+package ast;
+
+import util.NameTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash-conses the compound types: there is a single canonical PointerType,
+ * ArrayType and StructType for each distinct type, so that types can be compared
+ * with == and hashed by identity. Components are canonical themselves, which is
+ * what lets the tables below key on them by identity.
+ */
+public final class Types {
+
+	// pointer type to each pointee type
+	private static final Map<Type, PointerType> pointers = new HashMap<Type, PointerType>();
+	// array types of each element type, by length
+	private static final Map<Type, Map<Integer, ArrayType>> arrays = new HashMap<Type, Map<Integer, ArrayType>>();
+	// struct types by NameTable id
+	private static StructType[] structs = new StructType[256];
+	// every type above, in the order it was made, for reset()
+	private static final List<Type> made = new ArrayList<Type>();
+
+	private Types() {
+	}
+
+	public static synchronized PointerType pointer(Type to) {
+		PointerType p = pointers.get(to);
+		if (p == null) {
+			p = new PointerType(to);
+			pointers.put(to, p);
+			made.add(p);
+		}
+		return p;
+	}
+
+	public static synchronized ArrayType array(Type of, int length) {
+		Map<Integer, ArrayType> byLength = arrays.get(of);
+		if (byLength == null) {
+			byLength = new HashMap<Integer, ArrayType>();
+			arrays.put(of, byLength);
+		}
+		ArrayType a = byLength.get(length);
+		if (a == null) {
+			a = new ArrayType(of, length);
+			byLength.put(length, a);
+			made.add(a);
+		}
+		return a;
+	}
+
+	/*
+	 * The number of types made so far, to reset() to once a compilation is over.
+	 */
+	public static synchronized int size() {
+		return made.size();
+	}
+
+	/*
+	 * Forgets the types made after the first size of them, those of a compilation
+	 * that is over, so that the tables do not grow for the life of the JVM. The
+	 * types made before it stay canonical; those of the built-ins must be among them.
+	 */
+	public static synchronized void reset(int size) {
+		for (int k = made.size() - 1; k >= size; k--) {
+			Type t = made.remove(k);
+			if (t instanceof PointerType) {
+				pointers.remove(((PointerType) t).pointerToType);
+			} else if (t instanceof ArrayType) {
+				ArrayType a = (ArrayType) t;
+				Map<Integer, ArrayType> byLength = arrays.get(a.type);
+				byLength.remove(a.length);
+				if (byLength.isEmpty())
+					arrays.remove(a.type);
+			} else {
+				structs[((StructType) t).structId] = null;
+			}
+		}
+	}
+
+	public static StructType struct(String name) {
+		return struct(NameTable.intern(name));
+	}
+
+	public static synchronized StructType struct(int nameId) {
+		if (nameId >= structs.length)
+			structs = Arrays.copyOf(structs, Math.max(structs.length * 2, nameId + 1));
+		StructType s = structs[nameId];
+		if (s == null) {
+			s = new StructType(nameId);
+			structs[nameId] = s;
+			made.add(s);
+		}
+		return s;
+	}
+}
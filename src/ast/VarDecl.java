@@ -1,16 +1,24 @@
 package ast;
 
+import util.NameTable;
+
 public class VarDecl implements ASTNode {
     public final Type type;
     public final String varName;
+    public final int nameId; // see util.NameTable
     
     
     //offset to frame pointer or struct in which it is declared
     public int offset=-999999999;
 
     public VarDecl(Type type, String varName) {
+	    this(type, NameTable.intern(varName));
+    }
+
+    public VarDecl(Type type, int nameId) {
 	    this.type = type;
-	    this.varName = varName;
+	    this.nameId = nameId;
+	    this.varName = NameTable.name(nameId);
     }
 
      public <T> T accept(ASTVisitor<T> v) {
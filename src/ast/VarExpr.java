@@ -1,11 +1,19 @@
 package ast;
 
+import util.NameTable;
+
 public class VarExpr extends Expr {
     public final String name;
+    public final int nameId; // see util.NameTable
     public VarDecl vd; // to be filled in by the name analyser
     
     public VarExpr(String name){
-	this.name = name;
+	this(NameTable.intern(name));
+    }
+
+    public VarExpr(int nameId){
+	this.nameId = nameId;
+	this.name = NameTable.name(nameId);
     }
 
     public <T> T accept(ASTVisitor<T> v) {
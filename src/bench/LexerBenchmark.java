@@ -0,0 +1,75 @@
+package bench;
+
+import lexer.Scanner;
+import lexer.Token;
+import lexer.TokenBuffer;
+import lexer.Tokeniser;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures lexer throughput on a (preferably large) source file.
+ *
+ * Usage: java -cp bin bench.LexerBenchmark inputfile [iterations]
+ */
+public class LexerBenchmark {
+
+	public static void main(String[] args) throws FileNotFoundException {
+		if (args.length < 1) {
+			System.out.println("Usage: java " + LexerBenchmark.class.getName() + " inputfile [iterations]");
+			System.exit(-1);
+		}
+		File input = new File(args[0]);
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		double megabytes = input.length() / (1024.0 * 1024.0);
+
+		run("Token objects", input, iterations, megabytes, false);
+		run("TokenBuffer", input, iterations, megabytes, true);
+	}
+
+	private static void run(String name, File input, int iterations, double megabytes, boolean buffered)
+			throws FileNotFoundException {
+		// the first iterations only warm up the JIT
+		int warmup = Math.max(1, iterations / 3);
+		for (int i = 0; i < warmup; i++)
+			lex(input, buffered);
+
+		long best = Long.MAX_VALUE;
+		long tokens = 0;
+		long allocated = allocatedBytes();
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			tokens = lex(input, buffered);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		allocated = (allocatedBytes() - allocated) / iterations;
+
+		double seconds = best / 1e9;
+		System.out.printf("%s: %d tokens, %.2f MB in %.1f ms: %.1f MB/s, %.2f Mtokens/s, %.1f MB allocated%n",
+				name, tokens, megabytes, seconds * 1000, megabytes / seconds, tokens / seconds / 1e6,
+				allocated / (1024.0 * 1024.0));
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	private static long lex(File input, boolean buffered) throws FileNotFoundException {
+		Tokeniser tokeniser = new Tokeniser(new Scanner(input));
+		if (buffered) {
+			TokenBuffer tokens = tokeniser.tokenBuffer();
+			tokens.fillAll();
+			return tokens.size() - 1;
+		}
+		long count = 0;
+		for (Token t = tokeniser.nextToken(); t.tokenClass != Token.TokenClass.EOF; t = tokeniser.nextToken())
+			count++;
+		return count;
+	}
+}
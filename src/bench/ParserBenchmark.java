@@ -0,0 +1,95 @@
+package bench;
+
+import ast.Types;
+import lexer.Scanner;
+import lexer.Tokeniser;
+import parser.Parser;
+import util.NameTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Measures parser throughput, by default on a generated declaration heavy program
+ * (global variables, structs and functions full of local declarations), which is
+ * where the parser looks ahead the most.
+ *
+ * Usage: java -cp bin bench.ParserBenchmark [inputfile] [iterations]
+ */
+public class ParserBenchmark {
+
+	private static final int DECLARATIONS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		File input;
+		if (args.length > 0) {
+			input = new File(args[0]);
+		} else {
+			input = File.createTempFile("declarations", ".c");
+			input.deleteOnExit();
+			generate(input, DECLARATIONS);
+		}
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		// the parser recurses once per list element, give it room
+		Thread t = new Thread(null, () -> {
+			try {
+				run("Tokeniser", input, iterations, false);
+				run("TokenBuffer", input, iterations, true);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}, "parser", 1L << 29);
+		t.start();
+		t.join();
+	}
+
+	private static void run(String name, File input, int iterations, boolean buffered) throws IOException {
+		// the first iterations only warm up the JIT
+		int warmup = Math.max(1, iterations / 3);
+		for (int i = 0; i < warmup; i++)
+			parse(input, buffered);
+
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			parse(input, buffered);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		double seconds = best / 1e9;
+		System.out.printf("%s: %.2f MB in %.1f ms: %.1f MB/s%n", name, input.length() / (1024.0 * 1024.0),
+				seconds * 1000, input.length() / (1024.0 * 1024.0) / seconds);
+	}
+
+	private static void parse(File input, boolean buffered) throws IOException {
+		// each iteration is a compilation of its own, which interns its names and types
+		// afresh
+		int names = NameTable.size();
+		int types = Types.size();
+		Tokeniser tokeniser = new Tokeniser(new Scanner(input));
+		Parser parser = buffered ? new Parser(tokeniser.tokenBuffer()) : new Parser(tokeniser);
+		parser.parse();
+		Types.reset(types);
+		NameTable.reset(names);
+		if (parser.getErrorCount() > 0)
+			throw new IllegalStateException(input + " does not parse");
+	}
+
+	private static void generate(File file, int declarations) throws IOException {
+		try (PrintWriter out = new PrintWriter(file)) {
+			for (int i = 0; i < declarations / 10; i++)
+				out.println("struct s" + i + " { int a; char b[4]; struct s" + i + " * next; };");
+			for (int i = 0; i < declarations / 2; i++)
+				out.println("int g" + i + "; char* h" + i + "; struct s" + (i % 16) + " v" + i + "[8];");
+			for (int i = 0; i < declarations / 10; i++) {
+				out.println("int f" + i + "(int x, char* y) {");
+				out.println("\tint a; char b; struct s0 c; int d[16];");
+				out.println("\ta = x; return a;");
+				out.println("}");
+			}
+			out.println("void main() { }");
+		}
+	}
+}
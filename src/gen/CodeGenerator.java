@@ -1,14 +1,14 @@
 package gen;
 
 import ast.*;
+import sem.StructRegistry;
+import util.NameTable;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
-import java.util.EmptyStackException;
-import java.util.HashMap;
-import java.util.Stack;
-
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -17,18 +17,29 @@ import java.util.LinkedList;
 public class CodeGenerator implements ASTVisitor<Register> {
 
 	/*
-	 * Simple register allocator.
+	 * The code is generated over virtual registers, a new one for each value, and the
+	 * register allocator maps them to the temporaries once a function is done.
 	 */
 
-	// TODO: comment each block?
-	// contains all the free temporary registers
-	private Stack<Register> freeRegs = new Stack<Register>();
-
-	private Map<String, StructTypeDecl> structs = new HashMap<String, StructTypeDecl>();
+	private int virtualRegs = 0;
+	// the virtual registers checked out and not given back
+	private int checkedOut = 0;
+	// the scalar parameters and locals, kept in a virtual register of their own rather
+	// than in the frame; nothing can take their address
+	private final Map<VarDecl, Register> variables = new IdentityHashMap<VarDecl, Register>();
+	private RegisterAllocator allocator = new LinearScan();
+	// numbers the calls, to match up their SAVE, JAL and RESTORE
+	private int calls = 0;
+
+	// layout of the structs, from the semantic analysis
+	private final StructRegistry structs;
 	private int functionVarOffsets;
 
 	private FunDecl currentFunDecl;
 
+	// NameTable id of main
+	private final int mainId = NameTable.intern("main");
+
 	int uidGen = 0;
 
 	private int uid() {
@@ -37,40 +48,55 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 	int alloced = 0;
 
-	public CodeGenerator() {
-		freeRegs.addAll(Register.tmpRegs);
+	public CodeGenerator(StructRegistry structs) {
+		this.structs = structs;
 	}
 
 	private class RegisterAllocationError extends Error {
 	}
 
 	private Register getRegister() {
-		try {
-			Register r = freeRegs.pop();
-			// System.out.println("checked out "+r);
-			return r;
-		} catch (EmptyStackException ese) {
-			System.out.println("WEEP WOOP NO REGISTERS");
-			throw new RegisterAllocationError(); // no more free registers, bad luck!
-		}
+		checkedOut++;
+		return Register.virtual(virtualRegs++);
 	}
 
 	private void freeRegister(Register reg) {
 		if (reg == null) {
 			throw new RegisterAllocationError();
 		}
-		// System.out.println("checked in "+reg);
-		freeRegs.push(reg);
+		checkedOut--;
+	}
+
+	private static boolean isScalar(VarDecl vd) {
+		return vd.type == BaseType.INT || vd.type == BaseType.CHAR || vd.type instanceof PointerType;
 	}
 
-	private PrintWriter writer; // use this writer to output the assembly instructions
+	private PrintWriter writer; // use this writer to output the data segment
+
+	// the code of each function, main first, written out once they are all generated
+	private final List<FunctionCode> functions = new ArrayList<FunctionCode>();
+	private FunctionCode function; // being generated
+	private List<Instruction> code; // of that function
+	// rewrites the code of each function before it is written, if set
+	private Peephole peephole;
+
+	public void setPeephole(Peephole peephole) {
+		this.peephole = peephole;
+	}
+
+	// allocates registers by graph colouring, slower than the linear scan but with
+	// fewer moves and loads and stores left in loops, if set
+	public void setGraphColouring(boolean colouring) {
+		allocator = colouring ? new GraphColouring() : new LinearScan();
+	}
 
 	public void emitProgram(Program program, File outputFile) throws FileNotFoundException {
 		writer = new PrintWriter(outputFile);
 
 		visitProgram(program);
+		writeCode();
 
-		System.out.println("All registers returned: " + (freeRegs.size() == Register.tmpRegs.size()));
+		System.out.println("All registers returned: " + (checkedOut == 0));
 		writer.close();
 	}
 
@@ -78,6 +104,80 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		writer.write(line + "\n");
 	}
 
+	private void writeCode() {
+		int size = 0;
+		for (FunctionCode f : functions) {
+			size += f.code.size();
+		}
+		StringBuilder sb = new StringBuilder(size * 20);
+		for (FunctionCode f : functions) {
+			List<Instruction> code = allocator.allocate(f);
+			if (peephole != null) {
+				code = peephole.optimise(code);
+			}
+			for (Instruction i : code) {
+				i.appendTo(sb);
+			}
+		}
+		writer.append(sb);
+	}
+
+	private Instruction emit(Instruction i) {
+		code.add(i);
+		return i;
+	}
+
+	private Instruction emit(Opcode op, Register rd, Register rs, Register rt) {
+		return emit(new Instruction(op, rd, rs, rt, 0, null));
+	}
+
+	// also a memory access, rd, imm(rs)
+	private Instruction emit(Opcode op, Register rd, Register rs, int imm) {
+		return emit(new Instruction(op, rd, rs, null, imm, null));
+	}
+
+	private Instruction emit(Opcode op, Register rd, Register rs) {
+		return emit(new Instruction(op, rd, rs, null, 0, null));
+	}
+
+	private Instruction emit(Opcode op, Register rd) {
+		return emit(new Instruction(op, rd, null, null, 0, null));
+	}
+
+	private Instruction emit(Opcode op, Register rd, int imm) {
+		return emit(new Instruction(op, rd, null, null, imm, null));
+	}
+
+	private Instruction emit(Opcode op, Register rd, String label) {
+		return emit(new Instruction(op, rd, null, null, 0, label));
+	}
+
+	private Instruction emit(Opcode op, String label) {
+		return emit(new Instruction(op, null, null, null, 0, label));
+	}
+
+	private Instruction emit(Opcode op) {
+		return emit(new Instruction(op, null, null, null, 0, null));
+	}
+
+	private void label(String name) {
+		emit(Opcode.LABEL, name);
+	}
+
+	private void comment(String text) {
+		emit(Opcode.COMMENT, text);
+	}
+
+	private void push(Register r) {
+		emit(Opcode.ADDI, Register.sp, Register.sp, -4).spaced();
+		emit(Opcode.SW, r, Register.sp, 0).spaced();
+	}
+
+	private void pop(Register r) {
+		emit(Opcode.LW, r, Register.sp, 0).spaced();
+		emit(Opcode.ADDI, Register.sp, Register.sp, 4).spaced();
+	}
+
 	@Override
 	public Register visitProgram(Program p) {
 		writeLine(".data");
@@ -102,7 +202,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		// get the entrypoint main() function first
 
 		List<FunDecl> funDecls = new LinkedList<FunDecl>(p.funDecls);
-		Optional<FunDecl> maybeMain = funDecls.stream().filter(x -> x.name.equals("main")).findFirst();
+		Optional<FunDecl> maybeMain = funDecls.stream().filter(x -> x.nameId == mainId).findFirst();
 		if (!maybeMain.isPresent()) {
 			System.out.println("program does not have a main function");
 			return null;// ? will this even ever happen, we've already checked for this
@@ -114,8 +214,8 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		main.accept(this);
 
 		// exit properly from main
-		writeLine("li $v0, 10");
-		writeLine("syscall");
+		emit(Opcode.LI, Register.v0, 10);
+		emit(Opcode.SYSCALL);
 
 		for (FunDecl f : funDecls) {
 			f.accept(this);
@@ -134,32 +234,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 	}
 
 	private int getSizeOf(Type type) {
-
-		// if it is a pointer, allocate 1 word of memory
-		// if it is an array, fine the underlying type, and allocate its size * the
-		// length words of memory
-		// TODO struct type
-		// primitive type gets 1 word of memory
-
-		if (type == BaseType.INT || type instanceof PointerType) {
-			return 4;
-		} else if (type == BaseType.CHAR) {
-			return 1;
-		} else if (type instanceof ArrayType) {
-			return ((ArrayType) type).length * getSizeOf(((ArrayType) type).type);
-		} else if (type instanceof StructType) {
-			int cumulative = 0;
-
-			StructTypeDecl s = structs.get(((StructType) type).structType);
-			for (VarDecl v : s.variables) {
-				cumulative += getSizeOf(v.type);
-			}
-			return cumulative;
-		}
-
-		System.out.println("WARNING: OBJECT HAS NO SIZE");
-		return 0;
-
+		return structs.sizeOf(type);
 	}
 
 	@Override
@@ -168,20 +243,22 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 		for (VarDecl v : b.vars) {
 			v.accept(this);
-			size += (int) (Math.ceil(getSizeOf(v.type) / 4.0) * 4);
+			if (!variables.containsKey(v)) {
+				size += (int) (Math.ceil(getSizeOf(v.type) / 4.0) * 4);
+			}
 		}
 		for (Stmt s : b.code) {
 			Register r = s.accept(this);
 
 			if (r != null) {
-				if (Register.tmpRegs.contains(r)) {
+				if (r.isVirtual()) {
 					freeRegister(r);
 				}
 			}
 		}
 
 		// free up those vars
-		writeLine("addi $sp $sp " + size);
+		emit(Opcode.ADDI, Register.sp, Register.sp, size).spaced();
 		functionVarOffsets -= size;
 		return Register.v0;
 	}
@@ -216,12 +293,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 	@Override
 	public Register visitStructTypeDecl(StructTypeDecl st) {
-		int offset = 0;
-		for (VarDecl v : st.variables) {
-			v.offset = offset;
-			offset += getSizeOf(v.type);
-		}
-		structs.put(st.structDecl.structType, st);
+		// in the registry from the semantic analysis
 		return null;
 	}
 
@@ -229,13 +301,18 @@ public class CodeGenerator implements ASTVisitor<Register> {
 	public Register visitVarDecl(VarDecl vd) {
 
 		// allocate a *local* variable (globals have thier own function)
+		if (isScalar(vd)) {
+			variables.put(vd, Register.virtual(virtualRegs++));
+			return null;
+		}
 		int size = getSizeOf(vd.type);
 		int effSize = (int) (Math.ceil(size / 4.0) * 4);// normalise to 4-byte boundary
 		functionVarOffsets += effSize;
+		function.frameSize = Math.max(function.frameSize, functionVarOffsets);
 		vd.offset = functionVarOffsets;
 
 		// advance the stack pointer to make space for the new variable?
-		writeLine("addi " + Register.sp + ", " + Register.sp + ", -" + effSize);
+		emit(Opcode.ADDI, Register.sp, Register.sp, -effSize);
 		return null;
 	}
 
@@ -246,7 +323,11 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 		functionVarOffsets = 0;
 		currentFunDecl = p;
-		writeLine("function_" + p.name + ":");
+		variables.clear();
+		function = new FunctionCode();
+		functions.add(function);
+		code = function.code;
+		label("function_" + p.name);
 
 		prologue(p);
 
@@ -255,13 +336,13 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		if (p.type == BaseType.VOID) {
 			// it is possible to have a void function not have an explicit RETURN stmt
 			// so we will write it here just in case.
-			if (currentFunDecl.name.equals("main")) {
+			if (currentFunDecl.nameId == mainId) {
 				// return from main
-				writeLine("#returning from main");
+				comment("returning from main");
 
 			} else {
 				// any "normal" function
-				writeLine("#returning from function");
+				comment("returning from function");
 
 				epilogue();
 				return Register.v0;
@@ -272,42 +353,50 @@ public class CodeGenerator implements ASTVisitor<Register> {
 	}
 
 	private void prologue(FunDecl p) {
-		writeLine("#prologue start");
+		comment("prologue start");
 		// do the function prologue
 
 		// save frame pointer
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $fp 0($sp)");
+		push(Register.fp);
 
 		// set frame pointer to stack pointer
-		writeLine("move $fp $sp");
+		emit(Opcode.MOVE, Register.fp, Register.sp).spaced();
 		// place arg registers on the stack - NOTE: the overflow args are just under the
 		// SP
 
 		for (int i = 0; i < p.params.size(); i++) {
-			if (i < 4) {
-				writeLine("addi $sp $sp -4");
-				writeLine("sw " + Register.paramRegs[i] + " 0($sp)");
-				p.params.get(i).offset = (i + 1) * 4;
+			VarDecl param = p.params.get(i);
+			if (i < 4 && isScalar(param)) {
+				variables.put(param, Register.virtual(virtualRegs++));
+			} else if (i < 4) {
+				push(Register.paramRegs[i]);
 				functionVarOffsets += 4;
+				param.offset = functionVarOffsets;
+				function.pushed += 4;
 			} else {
 				p.params.get(i).offset = -4 - (p.params.size() - 5) * 4;// Return Address, depth of argument
 				functionVarOffsets += 4;
 			}
 		}
 
-		// TODO save function registers to restore later
-
-		// TODO find all function registers that are in use, save them (and free the
-		// registers, to reallocate later?)
+		// the register allocator saves $ra and the $s registers the function writes
+		// here, once it knows which they are
 
-		// TODO: inUse in the precall/postcall also includes these...
+		function.frameSize = functionVarOffsets;
+		comment("prologue end");
+		function.prologueEnd = code.size();
 
-		writeLine("#prologue end");
+		// the scalar parameters, copied into their registers once those are saved
+		for (int i = 0; i < p.params.size() && i < 4; i++) {
+			Register r = variables.get(p.params.get(i));
+			if (r != null) {
+				emit(Opcode.MOVE, r, Register.paramRegs[i]);
+			}
+		}
 	}
 
 	private void epilogue() {
-		writeLine("#epilogue start");
+		comment("epilogue start");
 		// do the function epilogue
 
 		// TODO restore function variables
@@ -315,8 +404,10 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		// these have all been popped off by the return stms
 		// pop arg registers off the stack
 
-		// throw away the locals
-		writeLine("move $sp $fp");
+		// throw away the locals, once the register allocator has restored what the
+		// prologue saved
+		function.epilogues.set(code.size());
+		emit(Opcode.MOVE, Register.sp, Register.fp).spaced();
 
 //		for (int i = currentFunDecl.params.size() - 1; i >= 0; i--) {
 //			if (i < 4) {
@@ -327,18 +418,17 @@ public class CodeGenerator implements ASTVisitor<Register> {
 //		}
 
 		// restore frame pointer
-		writeLine("lw $fp 0($sp)");
-		writeLine("addi $sp $sp 4");
+		pop(Register.fp);
 
-		writeLine("#epilogue end");
+		comment("epilogue end");
 
-		writeLine("jr $ra");
+		emit(Opcode.JR, Register.ra);
 	}
 
 	@Override
 	public Register visitIntLiteral(IntLiteral il) {
 		Register ret = getRegister();
-		writeLine("li " + ret + ", " + il.lit);
+		emit(Opcode.LI, ret, il.lit);
 		return ret;
 	}
 
@@ -346,14 +436,14 @@ public class CodeGenerator implements ASTVisitor<Register> {
 	public Register visitStrLiteral(StrLiteral sl) {
 		// String literals are char pointers
 		Register addr = getRegister();
-		writeLine("la " + addr + " " + sl.id);
+		emit(Opcode.LA, addr, sl.id).spaced();
 		return addr;
 	}
 
 	@Override
 	public Register visitChrLiteral(ChrLiteral cl) {
 		Register ret = getRegister();
-		writeLine("li " + ret + ", " + (int) (cl.lit));
+		emit(Opcode.LI, ret, (int) (cl.lit));
 		return ret;
 	}
 
@@ -361,23 +451,31 @@ public class CodeGenerator implements ASTVisitor<Register> {
 	public Register visitVarExpr(VarExpr v) {
 		// TODO check with sizes?
 
+		Register variable = variables.get(v.vd);
+		if (variable != null) {
+			// a copy, as the caller may overwrite it
+			Register value = getRegister();
+			emit(Opcode.MOVE, value, variable);
+			return value;
+		}
+
 		// check this is not a global
 		Register value = null;
 		if (v.vd.offset == -1) {
 
 			// this is a global
 			value = getRegister();
-			writeLine("la " + value + ", " + v.name);
-			writeLine("lw " + value + ", 0(" + value + ")");
+			emit(Opcode.LA, value, v.name);
+			emit(Opcode.LW, value, value, 0);
 		} else {
 			// get address of variable, which is our current frame pointer+offset
 			Register addrRegister = getRegister();
 
 			// System.out.println("Variable " + vd.varName + ": offset " + vd.offset);
 
-			writeLine("move " + addrRegister + ", $fp");
+			emit(Opcode.MOVE, addrRegister, Register.fp);
 			// load variable from address
-			writeLine("lw " + addrRegister + ", " + (-v.vd.offset) + "(" + addrRegister + ")");
+			emit(Opcode.LW, addrRegister, addrRegister, -v.vd.offset);
 			value = addrRegister;
 		}
 		return value;
@@ -385,269 +483,193 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 	@Override
 	public Register visitFunCallExpr(FunCallExpr fc) {
-		if (fc.name.equals("print_i")) {
-			return visitPrint_i(fc);
-		} else if (fc.name.equals("print_s")) {
-			return visitPrint_s(fc);
-		} else if (fc.name.equals("read_i")) {
-			return visitRead_i(fc);
-		} else if (fc.name.equals("read_c")) {
-			return visitRead_c(fc);
-		} else if (fc.name.equals("print_c")) {
-			return visitPrint_c(fc);
-		} else if (fc.name.equals("mcmalloc")) {
-			return visitMCMalloc(fc);
+		Builtin builtin = Builtin.of(fc.fd);
+		if (builtin != null) {
+			switch (builtin) {
+			case PRINT_I:
+				return visitPrint_i(fc);
+			case PRINT_S:
+				return visitPrint_s(fc);
+			case READ_I:
+				return visitRead_i(fc);
+			case READ_C:
+				return visitRead_c(fc);
+			case PRINT_C:
+				return visitPrint_c(fc);
+			case MCMALLOC:
+				return visitMCMalloc(fc);
+			}
 		}
 
 		// TODO: what about struct arguments, can't put those in an arg
 
-		precall(fc);
+		int call = precall(fc);
 
-		writeLine("jal function_" + fc.name);
+		emit(new Instruction(Opcode.JAL, null, null, null, call, "function_" + fc.name));
 
 		Register ret = getRegister();
-		writeLine("move " + ret + ", " + Register.v0);
+		emit(Opcode.MOVE, ret, Register.v0);
 
-		postcall(fc, ret);
+		postcall(fc, call);
 
 		return ret;
 	}
 
-	private void precall(FunCallExpr fc) {
-		writeLine("#precall begins");
-
-		// save temporaries
-
-		// to get used registers, diff freeRegs with tmpRegs; this is OK, since
-		// the funCall DEFINTION has already been written, so register usage is STATIC!
-		// We can replciate this on the other end too, since the defintion is NOT being
-		// .accepted-ed, so THE REGISTERS IN USE IS IDENTICAL ACROSS THE FUNCTION CALL
-
-		// did I mention I hate java? this is supposed a simple difference function
-		List<Register> inUse = (new LinkedList<Register>(Register.tmpRegs));
-		inUse.removeAll(new LinkedList<Register>(freeRegs));
-
-		for (int i = 0; i < inUse.size(); i++) {
-			Register r = inUse.get(i);
-			writeLine("addi $sp $sp -4");
-			writeLine("sw " + r + " 0($sp)");
-		}
-
-		// save old args?
-		for (int i = 0; i < Register.paramRegs.length; i++) {
-
-			Register r = Register.paramRegs[i];
-			writeLine("addi $sp $sp -4");
-			writeLine("sw " + r + " 0($sp)");
+	/*
+	 * Nothing the caller keeps is in the argument, value or return address registers
+	 * across a call: the parameters are copied out of $a0-$a3 by the prologue, a result
+	 * out of $v0 straight after the call, and $ra is saved by the prologue of a function
+	 * that makes calls. So only the temporaries need saving, and of those the register
+	 * allocator saves the ones live across the call that the callee may overwrite.
+	 */
+	private int precall(FunCallExpr fc) {
+		comment("precall begins");
+
+		// all the arguments first, a call in one would overwrite $a0-$a3
+		int call = calls++;
+		Register[] args = new Register[fc.args.size()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = fc.args.get(i).accept(this);
 		}
 
-		// save value registers (v0,v1)
-		writeLine("addi $sp $sp -4");
-		writeLine("sw " + Register.v0 + " 0($sp)");
-
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $v1 0($sp)");
-
-		// put return address on stack
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $ra 0($sp)");
+		emit(new Instruction(Opcode.SAVE, null, null, null, call, null));
 
-		// put args on stack
-
-		for (int i = 0; i < fc.args.size(); i++) {
-			Register r = fc.args.get(i).accept(this);
-			// System.out.println(fc.args.get(i));
+		for (int i = 0; i < args.length; i++) {
 			if (i < 4) {
-				writeLine("move " + Register.paramRegs[i] + ", " + r);
-
+				emit(Opcode.MOVE, Register.paramRegs[i], args[i]);
 			} else {
 				// write arg to stack
-				writeLine("addi $sp $sp -4");
-				writeLine("sw " + r + " 0($sp)");
+				push(args[i]);
 			}
-			freeRegister(r);
+			freeRegister(args[i]);
 		}
 
-		writeLine("#precall ends");
-
+		comment("precall ends");
+		return call;
 	}
 
-	private void postcall(FunCallExpr fc, Register doNotRestore) {
+	private void postcall(FunCallExpr fc, int call) {
 
-		writeLine("#postcall begins");
+		comment("postcall begins");
 		// remove args from stack
-		for (int i = fc.args.size(); i >= 0; i--) {
-			if (i < 4) {
-				// put back into register?
-				// writeLine("sw " + Register.paramRegs[i] + " 0($sp)");
-				// writeLine("addi $sp $sp 4");
-			} else {
-				// pop arg off the stack
-				writeLine("addi $sp $sp 4");
-			}
-		}
-
-		// restore return address from stack
-		writeLine("lw $ra 0($sp)");
-		writeLine("addi $sp $sp 4");
-
-		// restore value registers
-		writeLine("lw $v1 0($sp)");
-		writeLine("addi $sp $sp 4");
-
-		writeLine("lw $v0 0($sp)");
-		writeLine("addi $sp $sp 4");
-
-		// restore old args?
-		for (int i = Register.paramRegs.length - 1; i >= 0; i--) {
-			Register r = Register.paramRegs[i];
-			writeLine("lw " + r + " 0($sp)");
-			writeLine("addi $sp $sp 4");
+		if (fc.args.size() > 4) {
+			emit(Opcode.ADDI, Register.sp, Register.sp, 4 * (fc.args.size() - 4)).spaced();
 		}
 
-		// restore temporaries
-		List<Register> inUse = (new LinkedList<Register>(Register.tmpRegs));
-		inUse.removeAll(new LinkedList<Register>(freeRegs));
-		inUse.remove(doNotRestore);
+		// restore temporaries, not the one with the result as it is not live across
+		emit(new Instruction(Opcode.RESTORE, null, null, null, call, null));
 
-		for (int i = inUse.size() - 1; i >= 0; i--) {
-			Register r = inUse.get(i);
-			writeLine("lw " + r + " 0($sp)");
-			writeLine("addi $sp $sp 4");
-		}
-
-		writeLine("#postcall ends");
+		comment("postcall ends");
 	}
 
 	private Register visitPrint_i(FunCallExpr fc) {
 
-		writeLine("#print_i");
+		comment("print_i");
 		// save registers that are to be used
 
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $a0 0($sp)");
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $v0 0($sp)");
+		push(Register.paramRegs[0]);
+		push(Register.v0);
 		Register printThis = fc.args.get(0).accept(this);
-		writeLine("move $a0 " + printThis);
-		writeLine("li $v0 1");
-		writeLine("syscall");
+		emit(Opcode.MOVE, Register.paramRegs[0], printThis).spaced();
+		emit(Opcode.LI, Register.v0, Builtin.PRINT_I.syscall).spaced();
+		emit(Opcode.SYSCALL);
 		freeRegister(printThis);
 
 		// restore them
 
-		writeLine("lw $v0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("lw $a0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("#print_i over");
+		pop(Register.v0);
+		pop(Register.paramRegs[0]);
+		comment("print_i over");
 		return null;
 	}
 
 	private Register visitPrint_s(FunCallExpr fc) {
-		writeLine("#print_s begins");
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $a0 0($sp)");
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $v0 0($sp)");
+		comment("print_s begins");
+		push(Register.paramRegs[0]);
+		push(Register.v0);
 		Register printThis = fc.args.get(0).accept(this);
-		writeLine("move $a0, " + printThis);
-		writeLine("li $v0, 4");
-		writeLine("syscall");
+		emit(Opcode.MOVE, Register.paramRegs[0], printThis);
+		emit(Opcode.LI, Register.v0, Builtin.PRINT_S.syscall);
+		emit(Opcode.SYSCALL);
 		freeRegister(printThis);
-		writeLine("lw $v0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("lw $a0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("#print_s ends");
+		pop(Register.v0);
+		pop(Register.paramRegs[0]);
+		comment("print_s ends");
 		return null;
 	}
 
 	private Register visitRead_i(FunCallExpr fc) {
-		writeLine("#read_i");
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $v0 0($sp)");
-		writeLine("li $v0, 5");
-		writeLine("syscall");
+		comment("read_i");
+		push(Register.v0);
+		emit(Opcode.LI, Register.v0, Builtin.READ_I.syscall);
+		emit(Opcode.SYSCALL);
 		Register ret = getRegister();
-		writeLine("move " + ret + ", " + Register.v0);
-		writeLine("lw $v0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("#read_i ends");
+		emit(Opcode.MOVE, ret, Register.v0);
+		pop(Register.v0);
+		comment("read_i ends");
 		return ret;
 	}
 
 	private Register visitRead_c(FunCallExpr fc) {
-		writeLine("#read_c");
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $v0 0($sp)");
+		comment("read_c");
+		push(Register.v0);
 
-		writeLine("li $v0, 12");
+		emit(Opcode.LI, Register.v0, Builtin.READ_C.syscall);
 		// get buffer to write to
 
-		writeLine("syscall");
+		emit(Opcode.SYSCALL);
 		Register ret = getRegister();
-		writeLine("move " + ret + ", " + Register.v0);
+		emit(Opcode.MOVE, ret, Register.v0);
 
-		writeLine("lw $v0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("#read_c ends");
+		pop(Register.v0);
+		comment("read_c ends");
 		return ret;
 	}
 
 	private Register visitPrint_c(FunCallExpr fc) {
 
-		writeLine("#print_c");
+		comment("print_c");
 		// save registers that are to be used
 
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $a0 0($sp)");
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $v0 0($sp)");
+		push(Register.paramRegs[0]);
+		push(Register.v0);
 
 		Register printThis = fc.args.get(0).accept(this);
-		writeLine("addi $sp $sp -4");
-		writeLine("sw " + printThis + " 0($sp)");
+		push(printThis);
 
-		writeLine("move $a0 $sp");
-		writeLine("li $v0 4");
-		writeLine("syscall");
+		emit(Opcode.MOVE, Register.paramRegs[0], Register.sp).spaced();
+		emit(Opcode.LI, Register.v0, Builtin.PRINT_C.syscall).spaced();
+		emit(Opcode.SYSCALL);
 		freeRegister(printThis);
 
 		// restore them
-		writeLine("addi $sp $sp 4");
+		emit(Opcode.ADDI, Register.sp, Register.sp, 4).spaced();
 
-		writeLine("lw $v0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("lw $a0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("#print_c over");
+		pop(Register.v0);
+		pop(Register.paramRegs[0]);
+		comment("print_c over");
 		return null;
 	}
 
 	private Register visitMCMalloc(FunCallExpr fc) {
-		writeLine("#mcmalloc");
+		comment("mcmalloc");
 
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $a0 0($sp)");
-		writeLine("addi $sp $sp -4");
-		writeLine("sw $v0 0($sp)");
+		push(Register.paramRegs[0]);
+		push(Register.v0);
 
 		Register numBytes = fc.args.get(0).accept(this);
-		writeLine("move $a0 " + numBytes);
+		emit(Opcode.MOVE, Register.paramRegs[0], numBytes).spaced();
 		freeRegister(numBytes);
-		writeLine("li $v0 9");
-		writeLine("syscall");
+		emit(Opcode.LI, Register.v0, Builtin.MCMALLOC.syscall).spaced();
+		emit(Opcode.SYSCALL);
 
 		Register ret = getRegister();
-		writeLine("move " + ret + " $v0");
+		emit(Opcode.MOVE, ret, Register.v0).spaced();
 
-		writeLine("lw $v0 0($sp)");
-		writeLine("addi $sp $sp 4");
-		writeLine("lw $a0 0($sp)");
-		writeLine("addi $sp $sp 4");
+		pop(Register.v0);
+		pop(Register.paramRegs[0]);
 
-		writeLine("#mcmalloc over");
+		comment("mcmalloc over");
 		return ret;
 	}
 
@@ -715,21 +737,21 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register result = getRegister();/// yes we could just evaluate all the literal operations beforehand but
 											/// doing more than depth 1 seems to be more complex...
 			int value = ((IntLiteral) (bo.left)).lit + ((IntLiteral) (bo.right)).lit;
-			writeLine("li " + result + ", " + value);
+			emit(Opcode.LI, result, value);
 			return result;
 		} else if (bo.left instanceof IntLiteral && !(bo.right instanceof IntLiteral)) {
 			// literal on left side
 			int lit = ((IntLiteral) (bo.left)).lit;
 			Register rightReg = bo.right.accept(this);
 			// use the right register as destination
-			writeLine("addi " + rightReg + ", " + rightReg + ", " + lit);
+			emit(Opcode.ADDI, rightReg, rightReg, lit);
 			return rightReg;
 		} else if (!(bo.left instanceof IntLiteral) && bo.right instanceof IntLiteral) {
 			// literal on right side
 			int lit = ((IntLiteral) (bo.right)).lit;
 			Register leftReg = bo.left.accept(this);
 			// use the left register as destination
-			writeLine("addi " + leftReg + ", " + leftReg + ", " + lit);
+			emit(Opcode.ADDI, leftReg, leftReg, lit);
 			return leftReg;
 		} else {
 			// both left and right are expressions of their own...
@@ -737,7 +759,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register right = bo.right.accept(this);
 			// use left register as the destination
 
-			writeLine("add " + left + ", " + left + ", " + right);
+			emit(Opcode.ADD, left, left, right);
 
 			freeRegister(right);
 			return left;
@@ -753,7 +775,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register result = getRegister();/// yes we could just evaluate all the literal operations beforehand but
 											/// doing more than depth 1 seems to be more complex...
 			int value = ((IntLiteral) (bo.left)).lit - ((IntLiteral) (bo.right)).lit;
-			writeLine("li " + result + ", " + value);
+			emit(Opcode.LI, result, value);
 			return result;
 
 		} else if (bo.left instanceof IntLiteral && !(bo.right instanceof IntLiteral)) {
@@ -761,15 +783,15 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			int lit = ((IntLiteral) (bo.left)).lit;
 			Register rightReg = bo.right.accept(this);
 			// use the right register as destination
-			writeLine("negu " + rightReg + ", " + rightReg);
-			writeLine("addi " + rightReg + ", " + rightReg + ", " + lit);
+			emit(Opcode.NEGU, rightReg, rightReg);
+			emit(Opcode.ADDI, rightReg, rightReg, lit);
 			return rightReg;
 		} else if (!(bo.left instanceof IntLiteral) && bo.right instanceof IntLiteral) {
 			// literal on right side
 			int lit = ((IntLiteral) (bo.right)).lit;
 			Register leftReg = bo.left.accept(this);
 			// use the left register as destination
-			writeLine("addi " + leftReg + ", " + leftReg + ", -" + lit);
+			emit(Opcode.ADDI, leftReg, leftReg, -lit);
 			return leftReg;
 		} else {
 			// no subi command exists, so we have to create this expression manually, as at
@@ -778,8 +800,8 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register right = bo.right.accept(this);
 			// use left register as the destination
 
-			writeLine("negu " + right + ", " + right);
-			writeLine("add " + left + ", " + left + ", " + right);
+			emit(Opcode.NEGU, right, right);
+			emit(Opcode.ADD, left, left, right);
 
 			freeRegister(right);
 			return left;
@@ -793,10 +815,10 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		Register right = bo.right.accept(this);
 		// use left register as the destination
 
-		writeLine("div " + left + ", " + right);
+		emit(Opcode.DIV, left, right);
 		// div value is stored in lo, hi has mod
 		// move divided value to left register
-		writeLine("mflo " + left);
+		emit(Opcode.MFLO, left);
 
 		freeRegister(right);
 		return left;
@@ -811,14 +833,14 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register result = getRegister();
 			int value = ((IntLiteral) (bo.left)).lit * ((IntLiteral) (bo.right)).lit;
 
-			writeLine("li " + result + ", " + value);
+			emit(Opcode.LI, result, value);
 			return result;
 		} else {
 			Register left = bo.left.accept(this);
 			Register right = bo.right.accept(this);
 			// use left register as the destination
 
-			writeLine("mul " + left + ", " + left + ", " + right);
+			emit(Opcode.MUL, left, left, right);
 
 			freeRegister(right);
 			return left;
@@ -832,10 +854,10 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		Register right = bo.right.accept(this);
 		// use left register as the destination
 
-		writeLine("div " + left + ", " + right);
+		emit(Opcode.DIV, left, right);
 		// div value is stroed in lo, hi has mod
 		// move divided value to left register
-		writeLine("mfhi " + left);
+		emit(Opcode.MFHI, left);
 
 		freeRegister(right);
 		return left;
@@ -850,12 +872,12 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		Register left = bo.left.accept(this);
 		// if it is false, skip the rhs
 		String endIdent = "endand_" + uid();
-		writeLine("beqz " + left + " " + endIdent);
+		emit(Opcode.BEQZ, left, endIdent).spaced();
 		Register right = bo.right.accept(this);
 		// put right into left and free the register; we know left is already True
-		writeLine("move " + left + ", " + right);
+		emit(Opcode.MOVE, left, right);
 		freeRegister(right);
-		writeLine(endIdent + ":");
+		label(endIdent);
 		// left is the result of our AND
 
 		return left;
@@ -867,12 +889,12 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		Register left = bo.left.accept(this);
 		// if it is true, skip the rhs
 		String endIdent = "endor_" + uid();
-		writeLine("beqz " + left + " " + endIdent);
+		emit(Opcode.BEQZ, left, endIdent).spaced();
 		Register right = bo.right.accept(this);
 		// put right into left and free the register; we know left is already false
-		writeLine("move " + left + ", " + right);
+		emit(Opcode.MOVE, left, right);
 		freeRegister(right);
-		writeLine(endIdent + ":");
+		label(endIdent);
 		// left is the result of our OR
 
 		return left;
@@ -887,9 +909,9 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register result = getRegister();
 			boolean value = ((IntLiteral) (bo.left)).lit < ((IntLiteral) (bo.right)).lit;
 			if (value) {
-				writeLine("li " + result + ", 1");
+				emit(Opcode.LI, result, 1);
 			} else {
-				writeLine("li " + result + ", 0");
+				emit(Opcode.LI, result, 0);
 			}
 			return result;
 //		} else if (bo.left instanceof IntLiteral && !(bo.right instanceof IntLiteral)) {
@@ -908,7 +930,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			int lit = ((IntLiteral) (bo.right)).lit;
 			Register leftReg = bo.left.accept(this);
 			// use the left register as destination
-			writeLine("slti " + leftReg + ", " + leftReg + ", " + lit);
+			emit(Opcode.SLTI, leftReg, leftReg, lit);
 			return leftReg;
 		} else {
 			// both left and right are expressions of their own...
@@ -916,7 +938,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register right = bo.right.accept(this);
 			// use left register as the destination
 
-			writeLine("slt " + left + ", " + left + ", " + right);
+			emit(Opcode.SLT, left, left, right);
 
 			freeRegister(right);
 			return left;
@@ -932,16 +954,16 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register result = getRegister();
 			boolean value = ((IntLiteral) (bo.left)).lit > ((IntLiteral) (bo.right)).lit;
 			if (value) {
-				writeLine("li " + result + ", 1");
+				emit(Opcode.LI, result, 1);
 			} else {
-				writeLine("li " + result + ", 0");
+				emit(Opcode.LI, result, 0);
 			}
 			return result;
 		} else if (bo.left instanceof IntLiteral && !(bo.right instanceof IntLiteral)) {
 			// literal on left side
 			int lit = ((IntLiteral) (bo.left)).lit;
 			Register rightReg = bo.right.accept(this);
-			writeLine("slti " + rightReg + ", " + rightReg + ", " + lit);
+			emit(Opcode.SLTI, rightReg, rightReg, lit);
 			return rightReg;
 //		} else if (!(bo.left instanceof IntLiteral) && bo.right instanceof IntLiteral) {
 //			// literal on right side
@@ -956,13 +978,13 @@ public class CodeGenerator implements ASTVisitor<Register> {
 //			return leftReg;
 		} else {
 			// both left and right are expressions of their own...
-			writeLine("#gt last case");
+			comment("gt last case");
 			Register left = bo.left.accept(this);
 			Register right = bo.right.accept(this);
 			// use left register as the destination
 			// TODO this is wrong?
-			writeLine("slt " + left + ", " + right + ", " + left);
-			writeLine("#gt last case end");
+			emit(Opcode.SLT, left, right, left);
+			comment("gt last case end");
 			freeRegister(right);
 
 			return left;
@@ -975,7 +997,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		Register right = bo.right.accept(this);
 		// use left register as the destination
 
-		writeLine("seq " + left + ", " + left + ", " + right);
+		emit(Opcode.SEQ, left, left, right);
 
 		freeRegister(right);
 		return left;
@@ -992,14 +1014,14 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			int offset = ((IntLiteral) (ae.index)).lit;
 			// becuase we have 4-byte words
 			offset *= 4;
-			writeLine("lw " + baseAddress + ", " + offset + "(" + baseAddress + ")");
+			emit(Opcode.LW, baseAddress, baseAddress, offset);
 			// we have the value!
 		} else {
 			Register offset = ae.index.accept(this);
-			writeLine("sll " + offset + ", " + offset + ", 2");
-			writeLine("add " + baseAddress + ", " + baseAddress + ", " + offset);
+			emit(Opcode.SLL, offset, offset, 2);
+			emit(Opcode.ADD, baseAddress, baseAddress, offset);
 			freeRegister(offset);
-			writeLine("lw " + baseAddress + ", 0(" + baseAddress + ")");
+			emit(Opcode.LW, baseAddress, baseAddress, 0);
 		}
 		System.out.println("NOT FULLY IMPLEMENTED ARRAYACCESS");
 		return baseAddress;
@@ -1012,17 +1034,15 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 		// get base address
 		Register baseAddrRegister = getRegister();
-		writeLine("move " + baseAddrRegister + ", $fp");
+		emit(Opcode.MOVE, baseAddrRegister, Register.fp);
 
 		// get offset of the field
 
 		int offset = -((VarExpr) (fae.struct)).vd.offset; // get addr of struct
 
-		// I hate java
-		offset -= structs.get(((StructType) (((VarExpr) (fae.struct)).vd.type)).structType).variables.stream()
-				.filter(x -> x.varName.equals(fae.field)).findFirst().get().offset; // find fields offset
+		offset -= structs.offsetOf((StructType) (((VarExpr) (fae.struct)).vd.type), fae.fieldId); // find fields offset
 
-		writeLine("lw " + baseAddrRegister + ", " + offset + "(" + baseAddrRegister + ")");
+		emit(Opcode.LW, baseAddrRegister, baseAddrRegister, offset);
 
 		return baseAddrRegister;
 	}
@@ -1032,7 +1052,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		int size = getSizeOf(so.baseType);
 		Register reg = getRegister();
 
-		writeLine("li " + reg + ", " + size);
+		emit(Opcode.LI, reg, size);
 
 		return reg;
 	}
@@ -1057,16 +1077,16 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		int id = uid();
 		String startLine = "while_start_" + id;
 		String endLine = "while_end_" + id;
-		writeLine(startLine + ":");
+		label(startLine);
 		Register check = w.expr.accept(this);
 		// if the statement is false, jump to the end
-		writeLine("beqz " + check + ", " + endLine);
+		emit(Opcode.BEQZ, check, endLine);
 		freeRegister(check);
 		w.code.accept(this);
 		// loop
-		writeLine("j " + startLine);
+		emit(Opcode.J, startLine);
 		// endpoint of the loop
-		writeLine(endLine + ":");
+		label(endLine);
 		return null;
 	}
 
@@ -1078,21 +1098,21 @@ public class CodeGenerator implements ASTVisitor<Register> {
 		String endLine = "if_end_" + id;
 		Register condition = i.expr.accept(this);
 		if (i.elseCode != null) {
-			writeLine("beqz " + condition + ", " + negativeLine);
+			emit(Opcode.BEQZ, condition, negativeLine);
 		} else {
-			writeLine("beqz " + condition + ", " + endLine);
+			emit(Opcode.BEQZ, condition, endLine);
 		}
 		freeRegister(condition);
 		// if-code starts here
 		i.code.accept(this);
-		writeLine("j " + endLine);
+		emit(Opcode.J, endLine);
 		// else code starts here
 		if (i.elseCode != null) {
-			writeLine(negativeLine + ":");
+			label(negativeLine);
 			i.elseCode.accept(this);
 		}
 		// end of if statement here
-		writeLine(endLine + ":");
+		label(endLine);
 
 		return null;
 	}
@@ -1103,9 +1123,16 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 		Register toAssign = a.right.accept(this);
 
+		if (a.left instanceof VarExpr && variables.containsKey(((VarExpr) a.left).vd)) {
+			// kept in a register, no memory to write to
+			emit(Opcode.MOVE, variables.get(((VarExpr) a.left).vd), toAssign);
+			freeRegister(toAssign);
+			return null;
+		}
+
 		Register assignTo = getRegister();// a.left.accept(this);
 
-		writeLine("move " + assignTo + ", " + toAssign);
+		emit(Opcode.MOVE, assignTo, toAssign);
 
 		freeRegister(toAssign);
 
@@ -1122,15 +1149,15 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			if (v.vd.offset == -1) {
 				// global variable
 				Register addr = getRegister();
-				writeLine("la " + addr + " " + v.vd.varName);
-				writeLine("sw " + assignTo + " 0(" + addr + ")");
+				emit(Opcode.LA, addr, v.vd.varName).spaced();
+				emit(Opcode.SW, assignTo, addr, 0).spaced();
 				freeRegister(addr);
 			} else {
 				// local variable
 
 				Register addrRegister = getRegister();
-				writeLine("move " + addrRegister + ", $fp");
-				writeLine("sw " + assignTo + ", " + (-v.vd.offset) + "(" + addrRegister + ")");
+				emit(Opcode.MOVE, addrRegister, Register.fp);
+				emit(Opcode.SW, assignTo, addrRegister, -v.vd.offset);
 				freeRegister(addrRegister);
 			}
 
@@ -1139,14 +1166,12 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 			FieldAccessExpr fae = (FieldAccessExpr) (a.left);
 			Register addrRegister = getRegister();
-			writeLine("move " + addrRegister + ", $fp");
+			emit(Opcode.MOVE, addrRegister, Register.fp);
 			int offset = -((VarExpr) (fae.struct)).vd.offset; // get addr of struct
 
-			// I hate java
-			offset -= structs.get(((StructType) (((VarExpr) (fae.struct)).vd.type)).structType).variables.stream()
-					.filter(x -> x.varName.equals(fae.field)).findFirst().get().offset; // find fields offset
+			offset -= structs.offsetOf((StructType) (((VarExpr) (fae.struct)).vd.type), fae.fieldId); // find fields offset
 
-			writeLine("sw " + assignTo + ", " + offset + "(" + addrRegister + ")");
+			emit(Opcode.SW, assignTo, addrRegister, offset);
 			freeRegister(addrRegister);
 
 		} else if (a.left instanceof ArrayAccessExpr) {
@@ -1158,17 +1183,17 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			Register addrRegister = aae.index.accept(this);
 			Register temp = getRegister();
 
-			writeLine("li " + temp + ", -" + elemsize);
-			writeLine("mul " + addrRegister + ", " + addrRegister + ", " + temp);
+			emit(Opcode.LI, temp, -elemsize);
+			emit(Opcode.MUL, addrRegister, addrRegister, temp);
 			freeRegister(temp); // we have got -idx*elemsize
 
-			writeLine("add " + addrRegister + ", " + addrRegister + ", " + Register.fp);
+			emit(Opcode.ADD, addrRegister, addrRegister, Register.fp);
 			// sp- idx*elemSize
 
 			VarDecl vd = ((VarExpr) (aae.array)).vd;
-			writeLine("addi " + addrRegister + ", " + addrRegister + ", -" + vd.offset);
+			emit(Opcode.ADDI, addrRegister, addrRegister, -vd.offset);
 			// we have the address, now write to it
-			writeLine("sw " + assignTo + ", " + 0 + "(" + addrRegister + ")");
+			emit(Opcode.SW, assignTo, addrRegister, 0);
 			freeRegister(addrRegister);
 		} else {
 			// a.left is a pointer
@@ -1176,7 +1201,7 @@ public class CodeGenerator implements ASTVisitor<Register> {
 			// get address to write to
 			ValueAtExpr va = (ValueAtExpr) (a.left);
 			Register address = va.expr.accept(this);
-			writeLine("sw " + assignTo + ", " + 0 + "(" + address + ")");
+			emit(Opcode.SW, assignTo, address, 0);
 			freeRegister(address);
 
 		}
@@ -1191,11 +1216,11 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 		// but what about return from the base function?
 		// absolutely disgusting solution but whatever
-		if (currentFunDecl.name.equals("main")) {
+		if (currentFunDecl.nameId == mainId) {
 			// return from main
-			writeLine("#returning from main");
+			comment("returning from main");
 			Register reg = r.expr.accept(this);
-			writeLine("move $v0 " + reg);
+			emit(Opcode.MOVE, Register.v0, reg).spaced();
 			freeRegister(reg);
 			return Register.v0;
 		} else {
@@ -1203,10 +1228,10 @@ public class CodeGenerator implements ASTVisitor<Register> {
 
 			if (r.expr != null) {
 				Register reg = r.expr.accept(this);
-				writeLine("move " + Register.v0 + ", " + reg);
+				emit(Opcode.MOVE, Register.v0, reg);
 				freeRegister(reg);
 			}
-			writeLine("#returning from function");
+			comment("returning from function");
 
 			epilogue();
 			return Register.v0;
@@ -1216,13 +1241,13 @@ public class CodeGenerator implements ASTVisitor<Register> {
 	@Override
 	public Register visitValueAtExpr(ValueAtExpr va) {
 		Register address = va.expr.accept(this);
-		writeLine("lw " + address + " 0(" + address + ")");
+		emit(Opcode.LW, address, address, 0).spaced();
 		return address;
 	}
 
 	private void invertBool(Register r) {
-		writeLine("addi " + r + ", " + r + ", -1");
-		writeLine("negu " + r + ", " + r);
+		emit(Opcode.ADDI, r, r, -1);
+		emit(Opcode.NEGU, r, r);
 	}
 
 //	private void popToStack() {
@@ -0,0 +1,25 @@
+package gen;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The code generated for a function, over virtual registers, and what the register
+ * allocator needs to know of its frame to give it stack slots.
+ */
+final class FunctionCode {
+
+	final List<Instruction> code = new ArrayList<Instruction>();
+
+	// where the prologue ends, and the bytes it pushed below the frame pointer
+	int prologueEnd;
+	int pushed;
+
+	// where each epilogue throws away the frame; main has none, as it exits
+	final BitSet epilogues = new BitSet();
+
+	// the most bytes below the frame pointer the parameters and locals take, at the
+	// deepest block
+	int frameSize;
+}
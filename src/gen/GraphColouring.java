@@ -0,0 +1,263 @@
+package gen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Graph colouring register allocation, after Chaitin with Briggs' improvements. Two
+ * virtual registers interfere if one is written where the other is live, and each
+ * gets a temporary none of its neighbours has:
+ *
+ * - a move between two that do not interfere makes them one, so the move goes, if
+ * the merged one has fewer than K neighbours of K or more (Briggs' test), which keeps
+ * the graph as colourable as it was.
+ *
+ * - those with fewer than K neighbours are taken out of the graph, as they will find
+ * a colour whatever the others get; when none are left the one cheapest to keep on
+ * the stack, for its neighbours, goes instead, and is only put on the stack if it
+ * still finds no colour once its neighbours have theirs.
+ *
+ * The cost of keeping a register on the stack is its reads and writes, each weighing
+ * ten times more for each while loop it is in. Registers live across a call are
+ * given an $s register where they can be, and the others a caller-saved one.
+ */
+final class GraphColouring extends RegisterAllocator {
+
+	private static final int K = Register.tmpRegs.size();
+
+	@Override
+	Register[] assign(FunctionCode f, final Liveness liveness) {
+		int n = liveness.registers.size();
+		double[] weights = loopWeights(f.code);
+		double[] cost = new double[n];
+		for (int k = 0; k < f.code.size(); k++) {
+			addCost(cost, liveness.use(k, 0), weights[k]);
+			addCost(cost, liveness.use(k, 1), weights[k]);
+			addCost(cost, liveness.def(k), weights[k]);
+		}
+
+		final BitSet[] adjacent = new BitSet[n];
+		for (int v = 0; v < n; v++) {
+			adjacent[v] = new BitSet();
+		}
+		// the moves between two virtual registers, the dearest first
+		final List<int[]> moves = new ArrayList<int[]>();
+		liveness.backwards((index, i, liveAfter) -> {
+			int def = liveness.def(index);
+			if (def < 0) {
+				return;
+			}
+			// the source of a move need not be apart from its copy
+			int source = -1;
+			if (i.op == Opcode.MOVE && liveness.use(index, 0) >= 0) {
+				source = liveness.use(index, 0);
+				moves.add(new int[] { def, source, index });
+			}
+			for (int v = liveAfter.nextSetBit(0); v >= 0; v = liveAfter.nextSetBit(v + 1)) {
+				if (v != def && v != source) {
+					adjacent[def].set(v);
+					adjacent[v].set(def);
+				}
+			}
+		});
+		moves.sort((a, b) -> Double.compare(weights[b[2]], weights[a[2]]));
+		int[] degree = new int[n];
+		for (int v = 0; v < n; v++) {
+			degree[v] = adjacent[v].cardinality();
+		}
+
+		// coalesce, each register standing for those merged into it
+		int[] alias = new int[n];
+		for (int v = 0; v < n; v++) {
+			alias[v] = v;
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int[] m : moves) {
+				int a = find(alias, m[0]);
+				int b = find(alias, m[1]);
+				if (a == b || adjacent[a].get(b) || !briggs(adjacent, degree, a, b)) {
+					continue;
+				}
+				for (int w = adjacent[b].nextSetBit(0); w >= 0; w = adjacent[b].nextSetBit(w + 1)) {
+					adjacent[w].clear(b);
+					if (adjacent[w].get(a)) {
+						degree[w]--;
+					} else {
+						adjacent[w].set(a);
+						adjacent[a].set(w);
+						degree[a]++;
+					}
+				}
+				adjacent[b].clear();
+				degree[b] = 0;
+				alias[b] = a;
+				cost[a] += cost[b];
+				changed = true;
+			}
+		}
+		// the moves left, to give both ends the same colour where it is free
+		Map<Integer, List<Integer>> partners = new HashMap<Integer, List<Integer>>();
+		for (int[] m : moves) {
+			int a = find(alias, m[0]);
+			int b = find(alias, m[1]);
+			if (a != b) {
+				partners.computeIfAbsent(a, x -> new ArrayList<Integer>()).add(b);
+				partners.computeIfAbsent(b, x -> new ArrayList<Integer>()).add(a);
+			}
+		}
+
+		// simplify
+		int[] left = degree.clone();
+		boolean[] removed = new boolean[n];
+		int remaining = 0;
+		Deque<Integer> low = new ArrayDeque<Integer>();
+		for (int v = 0; v < n; v++) {
+			if (alias[v] != v) {
+				removed[v] = true;
+			} else {
+				remaining++;
+				if (left[v] < K) {
+					low.push(v);
+				}
+			}
+		}
+		Deque<Integer> stack = new ArrayDeque<Integer>();
+		while (remaining > 0) {
+			if (low.isEmpty()) {
+				low.push(spillCandidate(cost, left, removed));
+			}
+			int v = low.pop();
+			if (removed[v]) {
+				continue;
+			}
+			removed[v] = true;
+			remaining--;
+			stack.push(v);
+			for (int w = adjacent[v].nextSetBit(0); w >= 0; w = adjacent[v].nextSetBit(w + 1)) {
+				if (!removed[w] && left[w]-- == K) {
+					low.push(w);
+				}
+			}
+		}
+
+		// select, in the reverse order
+		BitSet calls = new BitSet();
+		BitSet across = liveness.acrossCalls();
+		for (int v = across.nextSetBit(0); v >= 0; v = across.nextSetBit(v + 1)) {
+			calls.set(find(alias, v));
+		}
+		int[] colour = new int[n];
+		Arrays.fill(colour, -1);
+		boolean[] taken = new boolean[K];
+		while (!stack.isEmpty()) {
+			int v = stack.pop();
+			Arrays.fill(taken, false);
+			for (int w = adjacent[v].nextSetBit(0); w >= 0; w = adjacent[v].nextSetBit(w + 1)) {
+				if (colour[w] >= 0) {
+					taken[colour[w]] = true;
+				}
+			}
+			int c = -1;
+			for (int p : partners.getOrDefault(v, Collections.<Integer>emptyList())) {
+				if (colour[p] >= 0 && !taken[colour[p]]) {
+					c = colour[p];
+					break;
+				}
+			}
+			for (int t = 0; c < 0 && t < 2 * K; t++) {
+				// those of the kind it prefers first
+				boolean saved = Register.tmpRegs.get(t % K).isCalleeSaved();
+				if (!taken[t % K] && (t >= K || saved == calls.get(v))) {
+					c = t % K;
+				}
+			}
+			colour[v] = c; // -1 goes to the stack
+		}
+
+		Register[] assigned = new Register[n];
+		for (int v = 0; v < n; v++) {
+			int c = colour[find(alias, v)];
+			assigned[v] = c >= 0 ? Register.tmpRegs.get(c) : null;
+		}
+		return assigned;
+	}
+
+	/*
+	 * The weight of each instruction, ten to the number of while loops it is in. A
+	 * while loop is the only jump back the code generator emits, from its end to the
+	 * label at its start.
+	 */
+	private static double[] loopWeights(List<Instruction> code) {
+		Map<String, Integer> labels = new HashMap<String, Integer>();
+		for (int k = 0; k < code.size(); k++) {
+			if (code.get(k).op == Opcode.LABEL) {
+				labels.put(code.get(k).label, k);
+			}
+		}
+		// the loops starting less those ending at each instruction
+		int[] starts = new int[code.size() + 1];
+		for (int k = 0; k < code.size(); k++) {
+			Instruction i = code.get(k);
+			Integer target = i.op == Opcode.J ? labels.get(i.label) : null;
+			if (target != null && target < k) {
+				starts[target]++;
+				starts[k + 1]--;
+			}
+		}
+		double[] weights = new double[code.size()];
+		int depth = 0;
+		for (int k = 0; k < code.size(); k++) {
+			depth += starts[k];
+			weights[k] = Math.pow(10, depth);
+		}
+		return weights;
+	}
+
+	private static void addCost(double[] cost, int v, double weight) {
+		if (v >= 0) {
+			cost[v] += weight;
+		}
+	}
+
+	private static int find(int[] alias, int v) {
+		while (alias[v] != v) {
+			v = alias[v] = alias[alias[v]];
+		}
+		return v;
+	}
+
+	// whether a and b merged have fewer than K neighbours with K or more
+	private static boolean briggs(BitSet[] adjacent, int[] degree, int a, int b) {
+		BitSet both = (BitSet) adjacent[a].clone();
+		both.or(adjacent[b]);
+		int significant = 0;
+		for (int w = both.nextSetBit(0); w >= 0; w = both.nextSetBit(w + 1)) {
+			// one neighbour of both loses an edge in the merge
+			int d = adjacent[a].get(w) && adjacent[b].get(w) ? degree[w] - 1 : degree[w];
+			if (d >= K && ++significant == K) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// the register left in the graph least worth its place, for the neighbours it has
+	private static int spillCandidate(double[] cost, int[] left, boolean[] removed) {
+		int best = -1;
+		for (int v = 0; v < cost.length; v++) {
+			if (!removed[v] && (best < 0 || cost[v] / left[v] < cost[best] / left[best])) {
+				best = v;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,151 @@
+package gen;
+
+/**
+ * One instruction of the generated code. Which of the operands are used depends on
+ * the format of the opcode; a memory operand is imm(rs), or the label of a global
+ * if there is no rs.
+ */
+final class Instruction {
+
+	final Opcode op;
+	final Register rd;
+	final Register rs;
+	final Register rt;
+	final int imm;
+	// the jump target, address or label name, or the text of a comment
+	final String label;
+
+	// operands separated by spaces rather than commas, as some of the generated code
+	// has always been written
+	boolean spaced;
+
+	Instruction(Opcode op, Register rd, Register rs, Register rt, int imm, String label) {
+		this.op = op;
+		this.rd = rd;
+		this.rs = rs;
+		this.rt = rt;
+		this.imm = imm;
+		this.label = label;
+	}
+
+	/*
+	 * Whether the instruction reads the register, as an operand. What calls and
+	 * syscalls read is up to the caller.
+	 */
+	boolean reads(Register r) {
+		switch (op.format) {
+		case RRR:
+			return rs == r || rt == r;
+		case RRI:
+			return rs == r;
+		case RR:
+			return rs == r || (op == Opcode.DIV && rd == r);
+		case R:
+		case RL:
+			return (op == Opcode.JR || op == Opcode.BEQZ) && rd == r;
+		case MEM:
+			return rs == r || (op == Opcode.SW && rd == r);
+		default:
+			return false;
+		}
+	}
+
+	boolean writes(Register r) {
+		switch (op.format) {
+		case RRR:
+		case RRI:
+		case RI:
+			return rd == r;
+		case RR:
+			return op != Opcode.DIV && rd == r;
+		case R:
+			return op != Opcode.JR && rd == r;
+		case RL:
+			return op == Opcode.LA && rd == r;
+		case MEM:
+			return op == Opcode.LW && rd == r;
+		default:
+			return false;
+		}
+	}
+
+	/*
+	 * The same instruction reading to instead of from, where it reads from.
+	 */
+	Instruction withReads(Register from, Register to) {
+		Register d = rd;
+		if (rd == from && (op == Opcode.DIV || op == Opcode.JR || op == Opcode.BEQZ || op == Opcode.SW)) {
+			d = to;
+		}
+		return new Instruction(op, d, rs == from ? to : rs, rt == from ? to : rt, imm, label);
+	}
+
+	/*
+	 * The same instruction with other registers.
+	 */
+	Instruction withRegisters(Register d, Register s, Register t) {
+		Instruction i = new Instruction(op, d, s, t, imm, label);
+		i.spaced = spaced;
+		return i;
+	}
+
+	Instruction spaced() {
+		spaced = true;
+		return this;
+	}
+
+	void appendTo(StringBuilder sb) {
+		String sep = spaced ? " " : ", ";
+		switch (op.format) {
+		case LABEL:
+			sb.append(label).append(':');
+			break;
+		case COMMENT:
+			sb.append('#').append(label);
+			break;
+		default:
+			sb.append(op.mnemonic);
+			switch (op.format) {
+			case RRR:
+				sb.append(' ').append(rd).append(sep).append(rs).append(sep).append(rt);
+				break;
+			case RRI:
+				sb.append(' ').append(rd).append(sep).append(rs).append(sep).append(imm);
+				break;
+			case RR:
+				sb.append(' ').append(rd).append(sep).append(rs);
+				break;
+			case R:
+				sb.append(' ').append(rd);
+				break;
+			case RI:
+				sb.append(' ').append(rd).append(sep).append(imm);
+				break;
+			case RL:
+				sb.append(' ').append(rd).append(sep).append(label);
+				break;
+			case MEM:
+				sb.append(' ').append(rd).append(sep);
+				if (rs == null) {
+					sb.append(label); // a global, by name
+				} else {
+					sb.append(imm).append('(').append(rs).append(')');
+				}
+				break;
+			case L:
+				sb.append(' ').append(label);
+				break;
+			default:
+				break;
+			}
+		}
+		sb.append('\n');
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		appendTo(sb);
+		return sb.substring(0, sb.length() - 1);
+	}
+}
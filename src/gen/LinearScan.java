@@ -0,0 +1,99 @@
+package gen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Linear scan register allocation, after Poletto and Sarkar. The live interval of a
+ * virtual register runs from the first to the last instruction it is live at, loops
+ * included, and it keeps one temporary for all of it. The intervals are taken in the
+ * order they start; when one starts with all the temporaries taken, whichever of it
+ * and the intervals holding them ends last goes to the stack instead. Intervals live
+ * across a call take an $s register first, and the others a caller-saved one.
+ */
+final class LinearScan extends RegisterAllocator {
+
+	@Override
+	Register[] assign(FunctionCode f, Liveness liveness) {
+		int n = liveness.registers.size();
+		final int[] start = new int[n];
+		final int[] end = new int[n];
+		Arrays.fill(start, Integer.MAX_VALUE);
+		Arrays.fill(end, -1);
+		// live on entry to a block or on leaving it covers all of it up to there, and
+		// in between any live point is between a write or entry and a read or exit
+		for (int b = 0; b < liveness.blockCount(); b++) {
+			BitSet in = liveness.liveIn(b);
+			for (int v = in.nextSetBit(0); v >= 0; v = in.nextSetBit(v + 1)) {
+				extend(start, end, v, liveness.blockStart(b));
+			}
+			BitSet out = liveness.liveOut(b);
+			for (int v = out.nextSetBit(0); v >= 0; v = out.nextSetBit(v + 1)) {
+				extend(start, end, v, liveness.blockEnd(b) - 1);
+			}
+			for (int k = liveness.blockStart(b); k < liveness.blockEnd(b); k++) {
+				extend(start, end, liveness.use(k, 0), k);
+				extend(start, end, liveness.use(k, 1), k);
+				extend(start, end, liveness.def(k), k);
+			}
+		}
+
+		List<Integer> intervals = new ArrayList<Integer>(n);
+		for (int v = 0; v < n; v++) {
+			if (end[v] >= 0) {
+				intervals.add(v);
+			}
+		}
+		intervals.sort((a, b) -> start[a] != start[b] ? Integer.compare(start[a], start[b]) : Integer.compare(a, b));
+
+		BitSet acrossCalls = liveness.acrossCalls();
+		Register[] assigned = new Register[n];
+		// the temporaries, callee-saved or not, the last of Register.tmpRegs handed out
+		// first
+		Deque<Register> saved = new ArrayDeque<Register>();
+		Deque<Register> free = new ArrayDeque<Register>();
+		for (Register r : Register.tmpRegs) {
+			(r.isCalleeSaved() ? saved : free).push(r);
+		}
+		// the intervals holding a temporary, by where they end
+		List<Integer> active = new ArrayList<Integer>();
+		for (int v : intervals) {
+			while (!active.isEmpty() && end[active.get(0)] < start[v]) {
+				Register r = assigned[active.remove(0)];
+				(r.isCalleeSaved() ? saved : free).push(r);
+			}
+			Deque<Register> first = acrossCalls.get(v) ? saved : free;
+			Deque<Register> second = first == saved ? free : saved;
+			if (free.isEmpty() && saved.isEmpty()) {
+				int last = active.get(active.size() - 1);
+				if (end[last] <= end[v]) {
+					continue; // v goes to the stack
+				}
+				assigned[v] = assigned[last];
+				assigned[last] = null;
+				active.remove(active.size() - 1);
+			} else {
+				assigned[v] = first.isEmpty() ? second.pop() : first.pop();
+			}
+			int at = active.size();
+			while (at > 0 && end[active.get(at - 1)] > end[v]) {
+				at--;
+			}
+			active.add(at, v);
+		}
+		return assigned;
+	}
+
+	// v may be -1, for no register
+	private static void extend(int[] start, int[] end, int v, int index) {
+		if (v < 0) {
+			return;
+		}
+		start[v] = Math.min(start[v], index);
+		end[v] = Math.max(end[v], index);
+	}
+}
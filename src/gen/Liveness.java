@@ -0,0 +1,242 @@
+package gen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the virtual registers of a function are live, by the usual backwards dataflow
+ * over its basic blocks. A block starts at a label or after a jump, and the jumps of
+ * a function only go to its own labels; a call falls through to the next instruction.
+ * Registers are numbered densely in the order they first appear.
+ */
+final class Liveness {
+
+	private static final int[] NONE = new int[0];
+
+	final List<Instruction> code;
+	final List<Register> registers = new ArrayList<Register>();
+	// the number of each virtual register, by its id less the lowest of the function
+	private final int[] numbers;
+	private final int lowest;
+
+	// the virtual registers each instruction reads, at most two, and writes, at most
+	// one, -1 for none
+	private final int[] use0;
+	private final int[] use1;
+	private final int[] def;
+
+	// the first instruction of each block, and the end of the code last
+	private final int[] blocks;
+	private final int[][] successors;
+	private final BitSet[] liveIn;
+	private final BitSet[] liveOut;
+
+	/*
+	 * Calls back with each instruction, the last of each block first, and what is live
+	 * just after it. The set is only good for the call.
+	 */
+	interface Visitor {
+		void visit(int index, Instruction i, BitSet liveAfter);
+	}
+
+	Liveness(List<Instruction> code) {
+		this.code = code;
+		int low = Integer.MAX_VALUE;
+		int high = -1;
+		for (Instruction i : code) {
+			for (int k = 0; k < 3; k++) {
+				Register r = operand(i, k);
+				if (r != null && r.isVirtual()) {
+					low = Math.min(low, r.virtualId());
+					high = Math.max(high, r.virtualId());
+				}
+			}
+		}
+		lowest = low;
+		numbers = new int[Math.max(high - low + 1, 0)];
+		Arrays.fill(numbers, -1);
+
+		use0 = new int[code.size()];
+		use1 = new int[code.size()];
+		def = new int[code.size()];
+		for (int k = 0; k < code.size(); k++) {
+			Instruction i = code.get(k);
+			use0[k] = use1[k] = def[k] = -1;
+			for (int o = 0; o < 3; o++) {
+				Register r = operand(i, o);
+				if (r == null || !r.isVirtual()) {
+					continue;
+				}
+				int number = number(r);
+				if (i.reads(r) && use0[k] != number) {
+					if (use0[k] < 0) {
+						use0[k] = number;
+					} else {
+						use1[k] = number;
+					}
+				}
+				if (i.writes(r)) {
+					def[k] = number;
+				}
+			}
+		}
+
+		List<Integer> starts = new ArrayList<Integer>();
+		Map<String, Integer> labels = new HashMap<String, Integer>();
+		for (int k = 0; k < code.size(); k++) {
+			Instruction i = code.get(k);
+			boolean leader = k == 0 || i.op == Opcode.LABEL || endsBlock(code.get(k - 1));
+			if (leader) {
+				starts.add(k);
+			}
+			if (i.op == Opcode.LABEL) {
+				labels.put(i.label, starts.size() - 1);
+			}
+		}
+		blocks = new int[starts.size() + 1];
+		for (int b = 0; b < starts.size(); b++) {
+			blocks[b] = starts.get(b);
+		}
+		blocks[starts.size()] = code.size();
+
+		int n = starts.size();
+		successors = new int[n][];
+		for (int b = 0; b < n; b++) {
+			Instruction last = code.get(blocks[b + 1] - 1);
+			Integer target = last.op == Opcode.J || last.op == Opcode.BEQZ ? labels.get(last.label) : null;
+			boolean falls = last.op != Opcode.J && last.op != Opcode.JR && b + 1 < n;
+			if (target != null && falls) {
+				successors[b] = new int[] { target, b + 1 };
+			} else if (target != null) {
+				successors[b] = new int[] { target };
+			} else if (falls) {
+				successors[b] = new int[] { b + 1 };
+			} else {
+				successors[b] = NONE;
+			}
+		}
+
+		// what each block reads before writing, and writes
+		BitSet[] gen = new BitSet[n];
+		BitSet[] kill = new BitSet[n];
+		liveIn = new BitSet[n];
+		liveOut = new BitSet[n];
+		for (int b = 0; b < n; b++) {
+			gen[b] = new BitSet();
+			kill[b] = new BitSet();
+			for (int k = blocks[b + 1] - 1; k >= blocks[b]; k--) {
+				if (def[k] >= 0) {
+					kill[b].set(def[k]);
+					gen[b].clear(def[k]);
+				}
+				set(gen[b], k);
+			}
+			liveOut[b] = new BitSet();
+			liveIn[b] = (BitSet) gen[b].clone();
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int b = n - 1; b >= 0; b--) {
+				for (int s : successors[b]) {
+					liveOut[b].or(liveIn[s]);
+				}
+				BitSet in = (BitSet) liveOut[b].clone();
+				in.andNot(kill[b]);
+				in.or(gen[b]);
+				if (!in.equals(liveIn[b])) {
+					liveIn[b] = in;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private static boolean endsBlock(Instruction i) {
+		return i.op == Opcode.J || i.op == Opcode.JR || i.op == Opcode.BEQZ;
+	}
+
+	private static Register operand(Instruction i, int k) {
+		return k == 0 ? i.rd : k == 1 ? i.rs : i.rt;
+	}
+
+	private int number(Register r) {
+		int at = r.virtualId() - lowest;
+		if (numbers[at] < 0) {
+			numbers[at] = registers.size();
+			registers.add(r);
+		}
+		return numbers[at];
+	}
+
+	/*
+	 * The virtual registers the instruction reads, which = 0 or 1, and writes, -1 for
+	 * none.
+	 */
+	int use(int index, int which) {
+		return which == 0 ? use0[index] : use1[index];
+	}
+
+	int def(int index) {
+		return def[index];
+	}
+
+	// adds what the instruction reads to the set
+	private void set(BitSet live, int index) {
+		if (use0[index] >= 0) {
+			live.set(use0[index]);
+		}
+		if (use1[index] >= 0) {
+			live.set(use1[index]);
+		}
+	}
+
+	int blockCount() {
+		return blocks.length - 1;
+	}
+
+	// the first instruction of a block, and the one after its last
+	int blockStart(int b) {
+		return blocks[b];
+	}
+
+	int blockEnd(int b) {
+		return blocks[b + 1];
+	}
+
+	BitSet liveIn(int b) {
+		return liveIn[b];
+	}
+
+	BitSet liveOut(int b) {
+		return liveOut[b];
+	}
+
+	// the registers live across any call
+	BitSet acrossCalls() {
+		final BitSet across = new BitSet();
+		backwards((index, i, liveAfter) -> {
+			if (i.op == Opcode.JAL) {
+				across.or(liveAfter);
+			}
+		});
+		return across;
+	}
+
+	void backwards(Visitor v) {
+		for (int b = 0; b < blocks.length - 1; b++) {
+			BitSet live = (BitSet) liveOut[b].clone();
+			for (int k = blocks[b + 1] - 1; k >= blocks[b]; k--) {
+				v.visit(k, code.get(k), live);
+				if (def[k] >= 0) {
+					live.clear(def[k]);
+				}
+				set(live, k);
+			}
+		}
+	}
+}
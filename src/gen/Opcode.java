@@ -0,0 +1,58 @@
+package gen;
+
+/**
+ * The MIPS instructions the code generator emits, and the pseudo instructions for
+ * labels, comments and the saving of registers around calls. The format gives the
+ * operands an Instruction has, and the order they are written in.
+ */
+enum Opcode {
+	ADD(Format.RRR),
+	ADDI(Format.RRI),
+	NEGU(Format.RR),
+	MUL(Format.RRR),
+	DIV(Format.RR), // into lo and hi
+	MFLO(Format.R),
+	MFHI(Format.R),
+	SLT(Format.RRR),
+	SLTI(Format.RRI),
+	SEQ(Format.RRR),
+	SLL(Format.RRI),
+	LI(Format.RI),
+	LA(Format.RL),
+	LW(Format.MEM),
+	SW(Format.MEM),
+	MOVE(Format.RR),
+	BEQZ(Format.RL),
+	J(Format.L),
+	JAL(Format.L),
+	JR(Format.R),
+	SYSCALL(Format.NONE),
+	// the caller-saved temporaries live across the call numbered imm, stored to the
+	// frame before it and loaded back after it, filled in by the register allocator
+	SAVE(Format.NONE),
+	RESTORE(Format.NONE),
+	LABEL(Format.LABEL),
+	COMMENT(Format.COMMENT);
+
+	enum Format {
+		RRR, // rd, rs, rt
+		RRI, // rd, rs, imm
+		RR, // rd, rs
+		R, // rd
+		RI, // rd, imm
+		RL, // rd, label
+		MEM, // rd, imm(rs)
+		L, // label
+		NONE,
+		LABEL, // label:
+		COMMENT // #label
+	}
+
+	final Format format;
+	final String mnemonic;
+
+	Opcode(Format format) {
+		this.format = format;
+		this.mnemonic = name().toLowerCase();
+	}
+}
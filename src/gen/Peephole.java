@@ -0,0 +1,341 @@
+package gen;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Peephole optimisation of the generated code, by rewrite rules matched against a
+ * window over the last few instructions of a function. What a rule puts in place of
+ * the instructions it matched goes through the window again, so rewrites cascade:
+ * a push sinks its stack adjustment into the next one, which then fold together.
+ * Comments are left where they are, and are not part of the window.
+ */
+public final class Peephole {
+
+	private enum Rule {
+		// nothing after a jump is reached, up to the next label
+		UNREACHABLE(2) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				if ((w[0].op == Opcode.J || w[0].op == Opcode.JR) && w[1].op != Opcode.LABEL) {
+					return new Instruction[] { w[0] };
+				}
+				return null;
+			}
+		},
+		// addi r, r, 0 and move r, r
+		NOP(1) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				Instruction i = w[0];
+				if ((i.op == Opcode.ADDI && i.rd == i.rs && i.imm == 0) || (i.op == Opcode.MOVE && i.rd == i.rs)) {
+					return NOTHING;
+				}
+				return null;
+			}
+		},
+		// addi r, r, a; addi r, r, b => addi r, r, a+b
+		FOLD_ADDI(2) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				if (isAddi(w[0]) && isAddi(w[1]) && w[0].rd == w[1].rd && fits(w[0].imm + w[1].imm)) {
+					return new Instruction[] { addi(w[0].rd, w[0].imm + w[1].imm) };
+				}
+				return null;
+			}
+		},
+		// addi $sp, $sp, a; lw/sw r, k($sp) => lw/sw r, k+a($sp); addi $sp, $sp, a
+		SINK_SP(2) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				Instruction m = w[1];
+				if (isAddi(w[0]) && w[0].rd == Register.sp && m.op.format == Opcode.Format.MEM && m.rs == Register.sp
+						&& m.rd != Register.sp && fits(m.imm + w[0].imm)) {
+					return new Instruction[] { new Instruction(m.op, m.rd, m.rs, null, m.imm + w[0].imm, null), w[0] };
+				}
+				return null;
+			}
+		},
+		// sw r, k(b); lw s, k(b) => sw r, k(b); move s, r
+		STORE_LOAD(2) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				if (w[0].op == Opcode.SW && w[1].op == Opcode.LW && sameSlot(w[0], w[1])) {
+					if (w[1].rd == w[0].rd) {
+						return new Instruction[] { w[0] };
+					}
+					return new Instruction[] { w[0], new Instruction(Opcode.MOVE, w[1].rd, w[0].rd, null, 0, null) };
+				}
+				return null;
+			}
+		},
+		// lw r, k(b); sw r, k(b) => lw r, k(b)
+		LOAD_STORE(2) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				if (w[0].op == Opcode.LW && w[1].op == Opcode.SW && sameSlot(w[0], w[1]) && w[0].rd == w[1].rd
+						&& w[0].rd != w[0].rs) {
+					return new Instruction[] { w[0] };
+				}
+				return null;
+			}
+		},
+		// move a, b; op ..a.. => op ..b.., if a is not read again
+		COPY(2) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				Instruction move = w[0];
+				Instruction x = w[1];
+				// not into a jump, as isDead() only follows the instructions falling through
+				if (move.op != Opcode.MOVE || move.rd == move.rs || !x.reads(move.rd) || x.op == Opcode.JR
+						|| x.op == Opcode.BEQZ) {
+					return null;
+				}
+				if (x.writes(move.rd) || p.isDead(move.rd)) {
+					return new Instruction[] { x.withReads(move.rd, move.rs) };
+				}
+				return null;
+			}
+		},
+		// la a, g; lw/sw r, 0(a) => lw/sw r, g
+		GLOBAL(2) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				Instruction la = w[0];
+				Instruction m = w[1];
+				if (la.op != Opcode.LA || m.op.format != Opcode.Format.MEM || m.rs != la.rd || m.imm != 0) {
+					return null;
+				}
+				if ((m.op == Opcode.LW && m.rd == la.rd) || (m.rd != la.rd && p.isDead(la.rd))) {
+					return new Instruction[] { new Instruction(m.op, m.rd, null, null, 0, la.label) };
+				}
+				return null;
+			}
+		},
+		// two invertBool() in a row: 1 - (1 - r) == r
+		DOUBLE_INVERT(4) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				Register r = w[0].rd;
+				for (int k = 0; k < 4; k += 2) {
+					if (!isAddi(w[k]) || w[k].rd != r || w[k].imm != -1 || w[k + 1].op != Opcode.NEGU
+							|| w[k + 1].rd != r || w[k + 1].rs != r) {
+						return null;
+					}
+				}
+				return NOTHING;
+			}
+		},
+		// j l; l: => l:
+		JUMP_NEXT(2) {
+			@Override
+			Instruction[] rewrite(Instruction[] w, Peephole p) {
+				if (w[0].op == Opcode.J && w[1].op == Opcode.LABEL && w[0].label.equals(w[1].label)) {
+					return new Instruction[] { w[1] };
+				}
+				return null;
+			}
+		};
+
+		final int size;
+
+		Rule(int size) {
+			this.size = size;
+		}
+
+		/*
+		 * What to put in place of the window, or null if the rule does not match.
+		 */
+		abstract Instruction[] rewrite(Instruction[] w, Peephole p);
+
+		String ruleName() {
+			return name().toLowerCase(Locale.ROOT).replace('_', '-');
+		}
+	}
+
+	private static final Instruction[] NOTHING = new Instruction[0];
+
+	private static boolean isAddi(Instruction i) {
+		return i.op == Opcode.ADDI && i.rd == i.rs;
+	}
+
+	private static Instruction addi(Register r, int imm) {
+		return new Instruction(Opcode.ADDI, r, r, null, imm, null);
+	}
+
+	// a 16 bit immediate
+	private static boolean fits(int imm) {
+		return imm >= Short.MIN_VALUE && imm <= Short.MAX_VALUE;
+	}
+
+	private static boolean sameSlot(Instruction a, Instruction b) {
+		return a.rs != null && a.rs == b.rs && a.imm == b.imm;
+	}
+
+	private final Rule[] rules;
+	private final int window;
+
+	// the function being rewritten: instructions done with, instructions put back by
+	// a rewrite, and the rest of the input
+	private List<Instruction> out;
+	private final Deque<Instruction> pending = new ArrayDeque<Instruction>();
+	private List<Instruction> in;
+	private int next;
+	private final int[] at;
+
+	/*
+	 * All the rules.
+	 */
+	public Peephole() {
+		this(EnumSet.allOf(Rule.class));
+	}
+
+	/*
+	 * Only the rules of the given names, see ruleNames().
+	 */
+	public Peephole(Collection<String> names) {
+		this(select(names));
+	}
+
+	private Peephole(EnumSet<Rule> rules) {
+		this.rules = rules.toArray(new Rule[0]);
+		int w = 1;
+		for (Rule r : rules) {
+			w = Math.max(w, r.size);
+		}
+		window = w;
+		at = new int[w];
+	}
+
+	private static EnumSet<Rule> select(Collection<String> names) {
+		EnumSet<Rule> rules = EnumSet.noneOf(Rule.class);
+		for (String name : names) {
+			Rule found = null;
+			for (Rule r : Rule.values()) {
+				if (r.ruleName().equals(name)) {
+					found = r;
+				}
+			}
+			if (found == null) {
+				throw new IllegalArgumentException("no peephole rule " + name);
+			}
+			rules.add(found);
+		}
+		return rules;
+	}
+
+	public static List<String> ruleNames() {
+		List<String> names = new ArrayList<String>();
+		for (Rule r : Rule.values()) {
+			names.add(r.ruleName());
+		}
+		return names;
+	}
+
+	List<Instruction> optimise(List<Instruction> code) {
+		out = new ArrayList<Instruction>(code.size());
+		in = code;
+		next = 0;
+		while (true) {
+			Instruction i;
+			if (!pending.isEmpty()) {
+				i = pending.pop();
+			} else if (next < in.size()) {
+				i = in.get(next++);
+			} else {
+				break;
+			}
+			out.add(i);
+			if (i.op != Opcode.COMMENT) {
+				match();
+			}
+		}
+		List<Instruction> result = out;
+		out = null;
+		in = null;
+		return result;
+	}
+
+	private void match() {
+		// where the last instructions are in out, the last one first
+		int n = 0;
+		for (int k = out.size() - 1; k >= 0 && n < window; k--) {
+			if (out.get(k).op != Opcode.COMMENT) {
+				at[n++] = k;
+			}
+		}
+		for (Rule r : rules) {
+			if (r.size > n) {
+				continue;
+			}
+			Instruction[] w = new Instruction[r.size];
+			for (int k = 0; k < r.size; k++) {
+				w[k] = out.get(at[r.size - 1 - k]);
+			}
+			Instruction[] replacement = r.rewrite(w, this);
+			if (replacement != null) {
+				for (int k = 0; k < r.size; k++) {
+					out.remove(at[k]);
+				}
+				for (int k = replacement.length - 1; k >= 0; k--) {
+					pending.push(replacement[k]);
+				}
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Whether the value in the register is overwritten before it is next read, after
+	 * the window. Calls save the caller-saved temporaries they need and restore them
+	 * after, so these are dead at a call, and all the temporaries are at a return;
+	 * the $s registers keep their values across a call. Anything else reaching a label
+	 * or a branch is taken to be live.
+	 */
+	private boolean isDead(Register r) {
+		for (Instruction i : pending) {
+			Boolean dead = deadAt(i, r);
+			if (dead != null) {
+				return dead;
+			}
+		}
+		for (int k = next; k < in.size(); k++) {
+			Boolean dead = deadAt(in.get(k), r);
+			if (dead != null) {
+				return dead;
+			}
+		}
+		return false;
+	}
+
+	// null if the instruction says nothing about the register
+	private static Boolean deadAt(Instruction i, Register r) {
+		switch (i.op) {
+		case COMMENT:
+			return null;
+		case JAL:
+			return Register.tmpRegs.contains(r) && !r.isCalleeSaved();
+		case JR:
+			return Register.tmpRegs.contains(r) && !i.reads(r);
+		case SYSCALL:
+			if (r == Register.v0 || r == Register.paramRegs[0]) {
+				return false;
+			}
+			return null;
+		case LABEL:
+		case J:
+		case BEQZ:
+			return false;
+		default:
+			if (i.reads(r)) {
+				return false;
+			}
+			return i.writes(r) ? Boolean.TRUE : null;
+		}
+	}
+}
@@ -14,6 +14,7 @@ public class Register {
      */
 
     public static final Register v0 = new Register(2,"v0");
+    public static final Register v1 = new Register(3,"v1");
     public static final Register[] paramRegs = {
             new Register(4,"a0"),
             new Register(5,"a1"),
@@ -30,6 +31,11 @@ public class Register {
             tmpRegs.add(new Register(i,"t"+(i-24+8)));
     }
 
+    // never allocated: scratch registers for the values the register allocator
+    // keeps on the stack
+    public static final Register k0 = new Register(26,"k0");
+    public static final Register k1 = new Register(27,"k1");
+
     public static final Register gp = new Register(28,"gp");
     public static final Register sp = new Register(29,"sp");
     public static final Register fp = new Register(30,"fp");
@@ -37,16 +43,43 @@ public class Register {
 
 
     private final int num;      // register number
-    private final String name;  // register name
+    private final String name;  // register name, as written in assembly, null if virtual
 
 
     private Register(int num, String name) {
         this.num = num;
-        this.name = name;
+        this.name = name == null ? null : "$"+name;
     }
 
     public String toString() {
-        return "$"+name;
+        return name != null ? name : "$vr" + virtualId();
+    }
+
+    /*
+     * Virtual registers stand for the values of the generated code until the register
+     * allocator gives each one of tmpRegs, or a stack slot.
+     */
+    private static final int VIRTUAL = 64;
+
+    static Register virtual(int id) {
+        return new Register(VIRTUAL + id, null);
+    }
+
+    boolean isVirtual() {
+        return num >= VIRTUAL;
+    }
+
+    // of a virtual register
+    int virtualId() {
+        return num - VIRTUAL;
+    }
+
+    /*
+     * The $s registers keep their value across a call: a function writing one saves it
+     * first, and restores it before it returns. The others are its callers' to save.
+     */
+    boolean isCalleeSaved() {
+        return num >= 16 && num <= 23;
     }
 
 }
@@ -0,0 +1,194 @@
+package gen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the virtual registers of a function to the temporaries, or to stack slots, and
+ * rewrites its code to match. Subclasses choose the mapping, keeping the $s registers
+ * for values live across calls where they can; what follows from it is the same for
+ * all of them:
+ *
+ * - a value on the stack is loaded into $k0 or $k1 where it is read, and stored from
+ * there where it is written.
+ *
+ * - the SAVE and RESTORE of a call store and load back the caller-saved temporaries
+ * holding values live across it, each to a slot of its own.
+ *
+ * - the prologue saves the $s registers the function writes, and $ra if it makes
+ * calls, and each epilogue restores them. Main saves nothing, as it never returns.
+ *
+ * - a move whose two registers get the same temporary is left out.
+ *
+ * The slots are below the deepest locals of the frame, which the prologue then
+ * reserves, so nothing pushed can overwrite them.
+ */
+abstract class RegisterAllocator {
+
+	/*
+	 * The temporary given to each virtual register, by its number in the liveness,
+	 * or null for those kept on the stack.
+	 */
+	abstract Register[] assign(FunctionCode f, Liveness liveness);
+
+	final List<Instruction> allocate(FunctionCode f) {
+		Liveness liveness = new Liveness(f.code);
+		Register[] assigned = assign(f, liveness);
+		return rewrite(f, liveness, assigned, liveAcrossCalls(liveness, assigned));
+	}
+
+	// the caller-saved temporaries to save for each call, by its number, in the order
+	// of Register.tmpRegs
+	private static Map<Integer, List<Register>> liveAcrossCalls(Liveness liveness, final Register[] assigned) {
+		final Map<Integer, List<Register>> saved = new HashMap<Integer, List<Register>>();
+		liveness.backwards((index, i, liveAfter) -> {
+			if (i.op != Opcode.JAL) {
+				return;
+			}
+			boolean[] live = new boolean[Register.tmpRegs.size()];
+			for (int v = liveAfter.nextSetBit(0); v >= 0; v = liveAfter.nextSetBit(v + 1)) {
+				if (assigned[v] != null && !assigned[v].isCalleeSaved()) {
+					live[Register.tmpRegs.indexOf(assigned[v])] = true;
+				}
+			}
+			List<Register> regs = new ArrayList<Register>();
+			for (int t = 0; t < live.length; t++) {
+				if (live[t]) {
+					regs.add(Register.tmpRegs.get(t));
+				}
+			}
+			saved.put(i.imm, regs);
+		});
+		return saved;
+	}
+
+	// what the prologue saves for the function's caller, in the order of Register.tmpRegs
+	private static List<Register> calleeSaved(FunctionCode f, Register[] assigned) {
+		List<Register> regs = new ArrayList<Register>();
+		if (f.epilogues.isEmpty()) {
+			return regs;
+		}
+		for (Register r : Register.tmpRegs) {
+			if (r.isCalleeSaved() && Arrays.asList(assigned).contains(r)) {
+				regs.add(r);
+			}
+		}
+		for (Instruction i : f.code) {
+			if (i.op == Opcode.JAL) {
+				regs.add(Register.ra);
+				break;
+			}
+		}
+		return regs;
+	}
+
+	private static List<Instruction> rewrite(FunctionCode f, Liveness liveness, Register[] assigned,
+			Map<Integer, List<Register>> saved) {
+		// the stack slots, below the frame
+		int below = f.frameSize;
+		int[] slots = new int[assigned.length];
+		for (int v = 0; v < assigned.length; v++) {
+			if (assigned[v] == null) {
+				below += 4;
+				slots[v] = -below;
+			}
+		}
+		Map<Register, Integer> saveSlots = new HashMap<Register, Integer>();
+		for (Register r : Register.tmpRegs) {
+			for (List<Register> regs : saved.values()) {
+				if (regs.contains(r)) {
+					below += 4;
+					saveSlots.put(r, -below);
+					break;
+				}
+			}
+		}
+		List<Register> calleeSaved = calleeSaved(f, assigned);
+		for (Register r : calleeSaved) {
+			below += 4;
+			saveSlots.put(r, -below);
+		}
+
+		List<Instruction> out = new ArrayList<Instruction>(f.code.size() + below - f.frameSize);
+		Register[] scratch = { Register.k0, Register.k1 };
+		// what each virtual register of an instruction becomes
+		Register[] from = new Register[3];
+		Register[] to = new Register[3];
+		for (int k = 0; k < f.code.size(); k++) {
+			if (k == f.prologueEnd && below > f.frameSize) {
+				out.add(new Instruction(Opcode.ADDI, Register.sp, Register.sp, null, -(below - f.pushed), null));
+				for (Register r : calleeSaved) {
+					out.add(new Instruction(Opcode.SW, r, Register.fp, null, saveSlots.get(r), null).spaced());
+				}
+			}
+			if (f.epilogues.get(k)) {
+				for (Register r : calleeSaved) {
+					out.add(new Instruction(Opcode.LW, r, Register.fp, null, saveSlots.get(r), null).spaced());
+				}
+			}
+			Instruction i = f.code.get(k);
+			if (i.op == Opcode.SAVE || i.op == Opcode.RESTORE) {
+				Opcode op = i.op == Opcode.SAVE ? Opcode.SW : Opcode.LW;
+				for (Register r : saved.get(i.imm)) {
+					out.add(new Instruction(op, r, Register.fp, null, saveSlots.get(r), null).spaced());
+				}
+				continue;
+			}
+			int def = liveness.def(k);
+			if (liveness.use(k, 0) < 0 && def < 0) {
+				out.add(i);
+				continue;
+			}
+
+			int mapped = 0;
+			int nextScratch = 0;
+			for (int u = 0; u < 2 && liveness.use(k, u) >= 0; u++) {
+				int v = liveness.use(k, u);
+				from[mapped] = liveness.registers.get(v);
+				if (assigned[v] != null) {
+					to[mapped] = assigned[v];
+				} else {
+					to[mapped] = scratch[nextScratch++];
+					out.add(new Instruction(Opcode.LW, to[mapped], Register.fp, null, slots[v], null));
+				}
+				mapped++;
+			}
+			Instruction store = null;
+			if (def >= 0) {
+				Register r = liveness.registers.get(def);
+				Register p = physical(r, from, to, mapped);
+				if (p == r) {
+					from[mapped] = r;
+					// written after the reads, so it can share a scratch register with them
+					p = to[mapped++] = assigned[def] != null ? assigned[def] : scratch[0];
+				}
+				if (assigned[def] == null) {
+					store = new Instruction(Opcode.SW, p, Register.fp, null, slots[def], null);
+				}
+			}
+			Instruction mappedTo = i.withRegisters(physical(i.rd, from, to, mapped), physical(i.rs, from, to, mapped),
+					physical(i.rt, from, to, mapped));
+			// a move between two registers given the same temporary is a no-op
+			if (mappedTo.op != Opcode.MOVE || mappedTo.rd != mappedTo.rs) {
+				out.add(mappedTo);
+			}
+			if (store != null) {
+				out.add(store);
+			}
+		}
+		return out;
+	}
+
+	private static Register physical(Register r, Register[] from, Register[] to, int mapped) {
+		for (int k = 0; k < mapped; k++) {
+			if (from[k] == r) {
+				return to[k];
+			}
+		}
+		return r;
+	}
+}
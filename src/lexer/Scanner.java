@@ -1,67 +1,106 @@
 package lexer;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 /**
  * @author cdubach
  */
 public class Scanner {
 
-    private BufferedReader input;
-    private int peeked = -1;
+    // after the last character of the input, so the Tokeniser can look one past it
+    public static final char EOF = '\uFFFF';
 
-    private int line = 1;
-    private int column = 0;
+    // the whole source file, followed by a single EOF sentinel
+    final char[] buffer;
+    final int length;
+    int pos = 0;
+
+    // offsets at which each line starts; lineStarts[0] is always 0
+    private final int[] lineStarts;
+    private final int lineCount;
 
     public Scanner(File source) throws FileNotFoundException {
-        input = new BufferedReader(new FileReader(source));
+        this(read(source));
     }
 
-
-    public int getColumn() {
-        return column;
+    private Scanner(String source) {
+        length = source.length();
+        buffer = new char[length + 1];
+        source.getChars(0, length, buffer, 0);
+        buffer[length] = EOF;
+
+        // build the line table once, so that positions are only computed on demand
+        int[] starts = new int[16];
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            char c = buffer[i];
+            if (c == '\n' || c == '\r') {
+                if (count == starts.length)
+                    starts = Arrays.copyOf(starts, count * 2);
+                starts[count++] = i + 1;
+            }
+        }
+        lineStarts = starts;
+        lineCount = count;
     }
 
-    public int getLine() {
-        return line;
+    private static String read(File source) throws FileNotFoundException {
+        if (!source.isFile())
+            throw new FileNotFoundException(source.toString());
+        try {
+            // decode with the platform charset, as the FileReader we used to read through did
+            return new String(Files.readAllBytes(source.toPath()));
+        } catch (IOException e) {
+            FileNotFoundException fnf = new FileNotFoundException(source.toString());
+            fnf.initCause(e);
+            throw fnf;
+        }
     }
 
-    public char peek() throws IOException {
-        if (peeked != -1)
-            return (char)peeked;
-
-        int r = input.read();
-        if (r == -1)
-            throw new EOFException();
-
-        peeked = r;
-        return (char) r;
+    /*
+     * Line of the given offset, i.e. one plus the number of line breaks before it.
+     * Keeps no state, so the parser and a lexer thread ahead of it may both ask.
+     */
+    public int lineOf(int offset) {
+        return lineOf(offset, 1);
     }
 
-
-    public char next() throws IOException {
-        char r;
-        if (peeked != -1) {
-            r = (char) peeked;
-            peeked = -1;
-        } else {
-            int i = input.read();
-            if (i == -1)
-                throw new EOFException();
-            r = (char) i;
+    /*
+     * The same, walking forward from the given line when the offset is on it or after
+     * it, as the offsets of successive tokens are.
+     */
+    public int lineOf(int offset, int from) {
+        int lo = from - 1;
+        if (lo >= 0 && lo < lineCount && lineStarts[lo] <= offset) {
+            while (lo + 1 < lineCount && lineStarts[lo + 1] <= offset)
+                lo++;
+            return lo + 1;
         }
-
-        if (r == '\n' || r == '\r') {
-            line++;
-            column =0;
-        } else {
-            column++;
+        lo = 0;
+        int hi = lineCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lineStarts[mid] <= offset)
+                lo = mid;
+            else
+                hi = mid - 1;
         }
-        return r;
+        return lo + 1;
+    }
+
+    public int columnOf(int offset) {
+        return columnOf(offset, lineOf(offset));
+    }
+
+    // of an offset on the given line
+    public int columnOf(int offset, int line) {
+        return offset - lineStarts[line - 1];
     }
 
     public void close() throws IOException {
-        input.close();
+        // the whole file has been read upfront, nothing left open
     }
 
 
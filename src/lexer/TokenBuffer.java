@@ -0,0 +1,194 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+
+import util.Diagnostics;
+import util.NameTable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A whole token stream, stored as parallel arrays of token class, start offset and
+ * length into the source. The text of a token is cut out of the source buffer, and
+ * Token objects are only created when asked for.
+ */
+public class TokenBuffer {
+
+	private static final TokenClass[] tokenClasses = TokenClass.values();
+
+	private final Scanner source;
+
+	// lexes further tokens on demand, null once the EOF token is in the buffer
+	private Tokeniser tokeniser;
+	// or hands over the tokens lexed by another thread
+	private TokenPipeline pipeline;
+
+	private int[] classes;
+	private int[] starts;
+	private int[] lengths;
+	// NameTable ids of identifiers, unused for other tokens
+	private int[] names;
+	// tokens become visible to fill() one by one, possibly after having been lexed
+	// ahead by lexAll(), which holds back their lexing errors until then
+	private int size = 0;
+	private int lexed = 0;
+	private Map<Integer, Diagnostics> deferredErrors;
+	private final Diagnostics diagnostics;
+
+	TokenBuffer(Scanner source, Tokeniser tokeniser) {
+		this(source, tokeniser.diagnostics);
+		this.tokeniser = tokeniser;
+	}
+
+	TokenBuffer(Scanner source, TokenPipeline pipeline) {
+		this(source, pipeline.diagnostics());
+		this.pipeline = pipeline;
+	}
+
+	private TokenBuffer(Scanner source, Diagnostics diagnostics) {
+		this.source = source;
+		this.diagnostics = diagnostics;
+		// a first guess at the number of tokens, the arrays grow as needed
+		int capacity = Math.max(1024, source.length / 3);
+		classes = new int[capacity];
+		starts = new int[capacity];
+		lengths = new int[capacity];
+		names = new int[capacity];
+	}
+
+	/*
+	 * Where the errors found in these tokens, and in parsing them, are reported.
+	 */
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	/*
+	 * Makes sure the i^th token has been lexed. Returns false if the stream ends
+	 * (with EOF) before it.
+	 */
+	public boolean fill(int i) {
+		while (size <= i) {
+			if (size < lexed) {
+				if (deferredErrors != null && deferredErrors.containsKey(size))
+					diagnostics.addAll(deferredErrors.remove(size));
+				size++;
+			} else if (pipeline != null) {
+				pipeline.next(this);
+			} else if (tokeniser != null) {
+				tokeniser.lexInto(this);
+			} else {
+				break;
+			}
+		}
+		return i < size;
+	}
+
+	/*
+	 * Lexes the rest of the input at once, holding back lexing errors: each is
+	 * reported when fill() gets to the token which caused it, as if lexing on demand.
+	 * Returns false if there were any, or if the tokens come from another thread.
+	 */
+	public boolean lexAll() {
+		if (pipeline != null)
+			return false;
+		if (tokeniser != null) {
+			Tokeniser t = tokeniser;
+			t.deferErrors();
+			while (tokeniser != null) {
+				int i = lexed;
+				t.lexInto(this);
+				Diagnostics errors = t.takeErrors();
+				if (errors != null) {
+					if (deferredErrors == null)
+						deferredErrors = new HashMap<Integer, Diagnostics>();
+					deferredErrors.put(i, errors);
+				}
+			}
+		}
+		if (deferredErrors != null && !deferredErrors.isEmpty())
+			return false;
+		// nothing to hold back, so fill() has nothing left to do either
+		size = lexed;
+		return true;
+	}
+
+	/*
+	 * Lexes the rest of the input.
+	 */
+	public void fillAll() {
+		fill(Integer.MAX_VALUE - 1);
+	}
+
+	void add(TokenClass tokenClass, int start, int length, int name) {
+		add(tokenClass.ordinal(), start, length, name);
+	}
+
+	void add(int tokenClass, int start, int length, int name) {
+		if (lexed == classes.length) {
+			classes = Arrays.copyOf(classes, lexed * 2);
+			starts = Arrays.copyOf(starts, lexed * 2);
+			lengths = Arrays.copyOf(lengths, lexed * 2);
+			names = Arrays.copyOf(names, lexed * 2);
+		}
+		classes[lexed] = tokenClass;
+		starts[lexed] = start;
+		lengths[lexed] = length;
+		names[lexed] = name;
+		lexed++;
+		if (tokenClass == TokenClass.EOF.ordinal()) {
+			tokeniser = null;
+			pipeline = null;
+		}
+	}
+
+	/*
+	 * Number of tokens lexed so far, including the final EOF once reached.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public TokenClass tokenClass(int i) {
+		return tokenClasses[classes[i]];
+	}
+
+	public int start(int i) {
+		return starts[i];
+	}
+
+	public int length(int i) {
+		return lengths[i];
+	}
+
+	/*
+	 * NameTable id of the i^th token, which must be an identifier.
+	 */
+	public int nameId(int i) {
+		return names[i];
+	}
+
+	/*
+	 * Same as the data of the corresponding Token.
+	 */
+	public String text(int i) {
+		if (classes[i] == TokenClass.IDENTIFIER.ordinal())
+			return NameTable.name(names[i]);
+		return Tokeniser.text(tokenClass(i), source.buffer, starts[i], starts[i] + lengths[i]);
+	}
+
+	public int line(int i) {
+		return source.lineOf(starts[i]);
+	}
+
+	public int column(int i) {
+		return source.columnOf(starts[i]);
+	}
+
+	public Token token(int i) {
+		return new Token(tokenClass(i), text(i), line(i), column(i));
+	}
+
+}
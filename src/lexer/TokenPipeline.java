@@ -0,0 +1,105 @@
+package lexer;
+
+import lexer.Token.TokenClass;
+
+import util.Diagnostics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs a Tokeniser on a thread of its own, ahead of the parser. Tokens are handed
+ * over in batches through a bounded ring of BATCHES batches, so the lexer blocks
+ * once it is that far ahead. Lexing errors travel with the token which caused them,
+ * and are reported when the parser gets to it, just as when lexing on demand.
+ */
+final class TokenPipeline implements Runnable {
+
+	private static final int BATCH_SIZE = 4096;
+	private static final int BATCHES = 8;
+
+	static final class Batch {
+		final int[] classes = new int[BATCH_SIZE];
+		final int[] starts = new int[BATCH_SIZE];
+		final int[] lengths = new int[BATCH_SIZE];
+		final int[] names = new int[BATCH_SIZE];
+		final Diagnostics[] errors = new Diagnostics[BATCH_SIZE];
+		int size;
+		// thrown by the lexer after the tokens of this batch
+		Throwable failure;
+	}
+
+	private final Tokeniser tokeniser;
+
+	// batches lexed but not yet consumed, and batches ready to be filled again
+	private final BlockingQueue<Batch> full = new ArrayBlockingQueue<Batch>(BATCHES);
+	private final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(BATCHES);
+
+	// the batch being consumed
+	private Batch current;
+	private int next;
+
+	TokenPipeline(Tokeniser tokeniser) {
+		this.tokeniser = tokeniser;
+		for (int i = 0; i < BATCHES; i++)
+			free.add(new Batch());
+		Thread lexer = new Thread(this, "lexer");
+		lexer.setDaemon(true);
+		lexer.start();
+	}
+
+	Diagnostics diagnostics() {
+		return tokeniser.diagnostics;
+	}
+
+	public void run() {
+		try {
+			boolean eof = false;
+			while (!eof) {
+				Batch batch = free.take();
+				batch.size = 0;
+				batch.failure = null;
+				try {
+					while (!eof && batch.size < BATCH_SIZE) {
+						eof = tokeniser.lexInto(batch, batch.size) == TokenClass.EOF;
+						batch.size++;
+					}
+				} catch (Throwable t) {
+					batch.failure = t;
+					eof = true;
+				}
+				full.put(batch);
+			}
+		} catch (InterruptedException e) {
+			// nobody is listening any more
+		}
+	}
+
+	/*
+	 * Adds the next token to the buffer, waiting for the lexer if need be.
+	 */
+	void next(TokenBuffer tokens) {
+		while (current == null || next == current.size) {
+			if (current != null) {
+				if (current.failure instanceof Error)
+					throw (Error) current.failure;
+				if (current.failure != null)
+					throw (RuntimeException) current.failure;
+				free.add(current);
+			}
+			try {
+				current = full.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while waiting for the lexer", e);
+			}
+			next = 0;
+		}
+
+		int i = next++;
+		if (current.errors[i] != null)
+			tokeniser.diagnostics.addAll(current.errors[i]);
+		tokens.add(current.classes[i], current.starts[i], current.lengths[i], current.names[i]);
+	}
+
+}
@@ -1,9 +1,9 @@
 package lexer;
 
 import lexer.Token.TokenClass;
-
-import java.io.EOFException;
-import java.io.IOException;
+import util.Diagnostics;
+import util.NameTable;
+import util.Position;
 
 /**
  * @author cdubach
@@ -22,342 +22,556 @@ public class Tokeniser {
 		this.scanner = scanner;
 	}
 
+	// where errors are reported, shared with the TokenBuffer and the parser
+	Diagnostics diagnostics = Diagnostics.immediate();
+
+	/*
+	 * Reports errors to the given collector, rather than printing them as they are
+	 * found. Must be called before the tokens are handed to a TokenBuffer.
+	 */
+	public void setDiagnostics(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	public Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	// when lexing ahead, errors are held back here and reported once the parser
+	// reaches the token which caused them
+	private Diagnostics deferred;
+
+	private void report(Diagnostics.Code code, Position position, Object arg) {
+		(deferred != null ? deferred : diagnostics).report(code, position, arg);
+	}
+
 	private void error(char c, int line, int col) {
-		System.out.println("Lexing error: unrecognised character (" + c + ") at " + line + ":" + col);
+		report(Diagnostics.Code.UNRECOGNISED_CHARACTER, new Position(line, col), c);
 		error++;
 	}
 
+	// extent in the source of the token last returned by scan()
+	private int tokenStart;
+	private int tokenEnd;
+	// NameTable id of the token last returned by scan(), if it is an identifier
+	private int tokenName;
+
 	public Token nextToken() {
-		Token result;
-		try {
-			result = next();
-		} catch (EOFException eof) {
-			// end of file, nothing to worry about, just return EOF token
-			return new Token(TokenClass.EOF, scanner.getLine(), scanner.getColumn());
-		} catch (IOException ioe) {
-			ioe.printStackTrace();
-			// something went horribly wrong, abort
-			System.exit(-1);
+		TokenClass tokenClass = scan();
+		String data = tokenClass == TokenClass.IDENTIFIER ? NameTable.name(tokenName)
+				: text(tokenClass, scanner.buffer, tokenStart, tokenEnd);
+		line = scanner.lineOf(tokenStart, line);
+		return new Token(tokenClass, data, line, scanner.columnOf(tokenStart, line));
+	}
+
+	// line of the last position looked up, where the next lookup starts from; only
+	// ever used by the thread lexing
+	private int line = 1;
+
+	/*
+	 * Returns the token stream as a TokenBuffer, which lexes on demand as its tokens
+	 * are asked for, without creating a Token for each token.
+	 */
+	public TokenBuffer tokenBuffer() {
+		return new TokenBuffer(scanner, this);
+	}
+
+	/*
+	 * Same as tokenBuffer(), except that the input is lexed ahead on a thread of its
+	 * own while the tokens are being consumed, see TokenPipeline.
+	 */
+	public TokenBuffer pipelinedTokenBuffer() {
+		deferErrors();
+		return new TokenBuffer(scanner, new TokenPipeline(this));
+	}
+
+	void lexInto(TokenBuffer tokens) {
+		TokenClass tokenClass = scan();
+		tokens.add(tokenClass, tokenStart, tokenEnd - tokenStart, tokenName);
+	}
+
+	TokenClass lexInto(TokenPipeline.Batch batch, int i) {
+		TokenClass tokenClass = scan();
+		batch.classes[i] = tokenClass.ordinal();
+		batch.starts[i] = tokenStart;
+		batch.lengths[i] = tokenEnd - tokenStart;
+		batch.names[i] = tokenName;
+		batch.errors[i] = takeErrors();
+		return tokenClass;
+	}
+
+	void deferErrors() {
+		if (deferred == null)
+			deferred = new Diagnostics();
+	}
+
+	/*
+	 * The errors held back since the last call, or null if there were none.
+	 */
+	Diagnostics takeErrors() {
+		if (deferred.isEmpty())
 			return null;
-		}
-		return result;
+		Diagnostics errors = deferred;
+		deferred = new Diagnostics();
+		return errors;
 	}
 
 	/*
-	 * To be completed
+	 * Character classes of the start state of the lexer DFA. The lexer is driven by
+	 * these tables for ASCII input, anything else falls back to the Unicode aware
+	 * Character methods the regular expressions in TokenClass were written against.
 	 */
-	private Token next() throws IOException {
+	private static final byte OTHER = 0;
+	private static final byte SPACE = 1; // Character.isWhitespace
+	private static final byte DIGIT = 2; // ('0'|...|'9')
+	private static final byte LETTER = 3; // ('a'|...|'z'|'A'|...|'Z'|'_')
+	private static final byte SINGLE = 4; // a token on its own, see single[]
+	private static final byte PAIR = 5; // a token which may be followed by second[], see paired[]
 
-		int line = scanner.getLine();
-		int column = scanner.getColumn();
+	private static final byte[] charClass = new byte[128];
 
-		// get the next character
-		char c = scanner.next();
+	// token for characters of class SINGLE and PAIR, null if the character is not a token on its own
+	private static final TokenClass[] single = new TokenClass[128];
 
-		// skip white spaces
-		if (Character.isWhitespace(c)) {
-			return next();
-		}
+	// for PAIR characters, the second character and the token they form together
+	private static final char[] second = new char[128];
+	private static final TokenClass[] paired = new TokenClass[128];
 
-		if (c == '#') {
-			for (int i = 0; i < 7; i++) {
-				if (scanner.peek() == "include".charAt(i)) {
-					scanner.next();					
-				} else {
-					error(c, line, column);
-					return new Token(TokenClass.INVALID, line, column);
-				}
-			}
-			return new Token(TokenClass.INCLUDE, line, column);
-		}
+	private static void single(char c, TokenClass t) {
+		charClass[c] = SINGLE;
+		single[c] = t;
+	}
 
-		// recognise operators
-		// recognises the plus operator
-		if (c == '+') {
-			return new Token(TokenClass.PLUS, line, column);
-		}
+	private static void pair(char c, TokenClass alone, char next, TokenClass together) {
+		charClass[c] = PAIR;
+		single[c] = alone;
+		second[c] = next;
+		paired[c] = together;
+	}
+
+	/*
+	 * Keywords are recognised with a perfect hash of their first and last character
+	 * and their length; see keywordHash.
+	 */
+	private static final char[][] keywords = new char[32][];
+	private static final TokenClass[] keywordClass = new TokenClass[32];
+
+	private static void keyword(String k, TokenClass t) {
+		char[] chars = k.toCharArray();
+		int h = keywordHash(chars[0], chars[chars.length - 1], chars.length);
+		if (keywords[h] != null)
+			throw new IllegalStateException("keyword hash collision on " + k);
+		keywords[h] = chars;
+		keywordClass[h] = t;
+	}
 
-		// recognise minus
-		if (c == '-') {
-			return new Token(TokenClass.MINUS, line, column);
+	private static int keywordHash(char first, char last, int length) {
+		return (first + last + length) & 31;
+	}
+
+	static {
+		for (char c = 0; c < 128; c++) {
+			if (Character.isWhitespace(c))
+				charClass[c] = SPACE;
+			else if (c >= '0' && c <= '9')
+				charClass[c] = DIGIT;
+			else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_')
+				charClass[c] = LETTER;
 		}
 
-		// recognise star
-		if (c == '*') {
-			return new Token(TokenClass.ASTERIX, line, column);
+		single('+', TokenClass.PLUS);
+		single('-', TokenClass.MINUS);
+		single('*', TokenClass.ASTERIX);
+		single('%', TokenClass.REM);
+		single('{', TokenClass.LBRA);
+		single('}', TokenClass.RBRA);
+		single('(', TokenClass.LPAR);
+		single(')', TokenClass.RPAR);
+		single('[', TokenClass.LSBR);
+		single(']', TokenClass.RSBR);
+		single(',', TokenClass.COMMA);
+		single(';', TokenClass.SC);
+		single('.', TokenClass.DOT);
+
+		pair('>', TokenClass.GT, '=', TokenClass.GE);
+		pair('<', TokenClass.LT, '=', TokenClass.LE);
+		pair('=', TokenClass.ASSIGN, '=', TokenClass.EQ);
+		pair('!', null, '=', TokenClass.NE);
+		pair('&', null, '&', TokenClass.AND);
+		pair('|', null, '|', TokenClass.OR);
+
+		keyword("int", TokenClass.INT);
+		keyword("void", TokenClass.VOID);
+		keyword("char", TokenClass.CHAR);
+		keyword("if", TokenClass.IF);
+		keyword("else", TokenClass.ELSE);
+		keyword("while", TokenClass.WHILE);
+		keyword("return", TokenClass.RETURN);
+		keyword("struct", TokenClass.STRUCT);
+		keyword("sizeof", TokenClass.SIZEOF);
+	}
+
+	private static byte classOf(char c) {
+		if (c < 128)
+			return charClass[c];
+		if (Character.isWhitespace(c))
+			return SPACE;
+		if (Character.isDigit(c))
+			return DIGIT;
+		if (Character.isAlphabetic(c))
+			return LETTER;
+		return OTHER;
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		if (c < 128) {
+			byte cls = charClass[c];
+			return cls == LETTER || cls == DIGIT;
 		}
+		return Character.isLetterOrDigit(c);
+	}
 
-		// recognise divide
-		if (c == '/') {
-			if (scanner.peek() == '/') {// this is a simple-line comment, skip to the next line
-				while (scanner.peek() != '\n') {
-					scanner.next();
-				}
-				return next();
-
-			} else if (scanner.peek() == '*') {
-				// multiline comment, skip until ending
-				scanner.next();
-				while (true) {
-					scanner.next();
-					if (scanner.peek() == '*') {
-						scanner.next();
-						if (scanner.peek() == '/') {
-							scanner.next();
-							return next();
-						}
-					}
+	/*
+	 * Reaching the end of the input in the middle of a token (or while looking ahead
+	 * for its last character) ends the token stream, whatever was read so far.
+	 */
+	private TokenClass eof() {
+		scanner.pos = scanner.length;
+		tokenStart = scanner.length;
+		tokenEnd = scanner.length;
+		return TokenClass.EOF;
+	}
 
-				}
+	private TokenClass token(TokenClass tokenClass, int end, int start) {
+		scanner.pos = end;
+		tokenStart = start;
+		tokenEnd = end;
+		return tokenClass;
+	}
 
-			} else {
+	private TokenClass invalid(char c, int end, int start) {
+		line = scanner.lineOf(start, line);
+		error(c, line, scanner.columnOf(start, line));
+		return token(TokenClass.INVALID, end, start);
+	}
 
-				return new Token(TokenClass.DIV, line, column);
-			}
-		}
+	private TokenClass scan() {
+		final char[] buf = scanner.buffer;
+		final int len = scanner.length;
 
-		// recognise modulo
-		if (c == '%') {
-			return new Token(TokenClass.REM, line, column);
-		}
+		int start = skipSpaceAndComments(scanner.pos);
+		if (start == len)
+			return eof();
 
-		// comparisions
-		// recognise greater than
-		// recognise greater or equal
-		if (c == '>') {
-			if (scanner.peek() == '=') {
-				scanner.next();
-				return new Token(TokenClass.GE, line, column);
-			} else {
-				return new Token(TokenClass.GT, line, column);
-			}
+		// get the next character
+		char c = buf[start];
+		int p = start + 1;
+
+		switch (classOf(c)) {
+		case SINGLE:
+			return token(single[c], p, start);
+
+		case PAIR:
+			if (p == len)
+				return eof();
+			if (buf[p] == second[c])
+				return token(paired[c], p + 1, start);
+			if (single[c] != null)
+				return token(single[c], p, start);
+			return invalid(c, p, start);
+
+		case DIGIT:
+			return intLiteral(c, p, start);
+
+		case LETTER:
+			return identifierOrKeyword(p, start);
+
+		default:
+			break;
 		}
 
-		// recognise smaller
-		// recognise smaller or equal
-		if (c == '<') {
-			if (scanner.peek() == '=') {
-				scanner.next();
-				return new Token(TokenClass.LE, line, column);
-			} else {
-				return new Token(TokenClass.LT, line, column);
-			}
+		switch (c) {
+		case '/':
+			if (p == len)
+				return eof();
+			return token(TokenClass.DIV, p, start);
+		case '#':
+			return include(p, start);
+		case '"':
+			return stringLiteral(p, start);
+		case '\'':
+			return charLiteral(p, start);
+		default:
+			// if we reach this point, it means we did not recognise a valid token
+			return invalid(c, p, start);
 		}
+	}
 
-		// recognise equality operator
-		if (c == '=') {
-			if (scanner.peek() == '=') {
-				scanner.next();
-				return new Token(TokenClass.EQ, line, column);
+	/*
+	 * Skips a whole run of white space and comments in one loop, rather than a call
+	 * per character or comment, and returns the offset of the next token. A comment
+	 * left open at the end of the input runs to the end (and so gives EOF).
+	 */
+	private int skipSpaceAndComments(int p) {
+		final char[] buf = scanner.buffer;
+		final int len = scanner.length;
+		while (true) {
+			char c = buf[p];
+			if (classOf(c) == SPACE) {
+				p++;
+			} else if (c == '/' && p + 1 < len && buf[p + 1] == '/') {
+				p = lineComment(p + 1);
+			} else if (c == '/' && p + 1 < len && buf[p + 1] == '*') {
+				p = blockComment(p + 2);
 			} else {
-				return new Token(TokenClass.ASSIGN, line, column);
+				return p;
 			}
 		}
+	}
+
+	private int lineComment(int p) {
+		// this is a simple-line comment, skip to the next line
+		final char[] buf = scanner.buffer;
+		final int len = scanner.length;
+		while (p < len && buf[p] != '\n')
+			p++;
+		return p;
+	}
 
-		// recognise inequality operator
-		if (c == '!') {
-			if (scanner.peek() == '=') {
-				scanner.next();
-				return new Token(TokenClass.NE, line, column);
+	private int blockComment(int p) {
+		// multiline comment, skip until ending. The character following the opening
+		// "/*" is never taken as the start of the closing "*/".
+		final char[] buf = scanner.buffer;
+		final int len = scanner.length;
+		while (true) {
+			if (p == len)
+				return len;
+			p++;
+			if (p == len)
+				return len;
+			if (buf[p] == '*') {
+				p++;
+				if (p == len)
+					return len;
+				if (buf[p] == '/')
+					return p + 1;
 			}
 		}
+	}
 
-		// logical operators
-		// recognise NOT
-
-		// recognise AND
-		if (c == '&') {
-			if (scanner.peek() == '&') {
-				scanner.next();
-				return new Token(TokenClass.AND, line, column);
-			}
+	private static final char[] include = "include".toCharArray();
+
+	private TokenClass include(int p, int start) {
+		final char[] buf = scanner.buffer;
+		final int len = scanner.length;
+		for (int i = 0; i < include.length; i++) {
+			if (p == len)
+				return eof();
+			if (buf[p] != include[i])
+				return invalid('#', p, start);
+			p++;
 		}
-		// recognise OR
-		if (c == '|') {
-			if (scanner.peek() == '|') {
-				scanner.next();
-				return new Token(TokenClass.OR, line, column);
+		return token(TokenClass.INCLUDE, p, start);
+	}
+
+	private TokenClass intLiteral(char c, int p, int start) {
+		// ('0'|...|'9')+, which may not run into an identifier. The EOF sentinel
+		// terminates the loop like any other character of class OTHER.
+		final char[] buf = scanner.buffer;
+		while (true) {
+			char d = buf[p];
+			byte cls = classOf(d);
+			if (cls == DIGIT) {
+				c = d;
+				p++;
+			} else if (cls == LETTER && d != '_') {
+				// i.e we have an identifier like 247aday
+				return invalid(c, p, start);
+			} else {
+				// end of the int literal, we are in an expression like 34*15+13
+				break;
 			}
 		}
+		if (p == scanner.length)
+			return eof();
+		return token(TokenClass.INT_LITERAL, p, start);
+	}
 
-		// recognise delimiters
-		if (c == '{') {
-			return new Token(TokenClass.LBRA, line, column);
-		}
-		if (c == '}') {
-			return new Token(TokenClass.RBRA, line, column);
-		}
-		if (c == '(') {
-			return new Token(TokenClass.LPAR, line, column);
-		}
-		if (c == ')') {
-			return new Token(TokenClass.RPAR, line, column);
-		}
-		if (c == '[') {
-			return new Token(TokenClass.LSBR, line, column);
-		}
-		if (c == ']') {
-			return new Token(TokenClass.RSBR, line, column);
-		}
-		if (c == ',') {
-			return new Token(TokenClass.COMMA, line, column);
-		}
-		if (c == ';') {
-			return new Token(TokenClass.SC, line, column);
-		}
-		if (c == '.') {
-			return new Token(TokenClass.DOT, line, column);
-		}
+	private TokenClass identifierOrKeyword(int p, int start) {
+		final char[] buf = scanner.buffer;
+		while (isIdentifierPart(buf[p]))
+			p++;
+		if (p == scanner.length)
+			return eof();
+
+		int length = p - start;
+		int h = keywordHash(buf[start], buf[p - 1], length);
+		char[] k = keywords[h];
+		if (k != null && k.length == length && matches(k, buf, start))
+			return token(keywordClass[h], p, start);
+
+		tokenName = NameTable.intern(buf, start, length);
+		return token(TokenClass.IDENTIFIER, p, start);
+	}
 
-		if (c == '"') {
-			// string literal
-			String lit = "";
-			while (scanner.peek() != '"') {
-				if (scanner.peek() == '\\') {
-					// this is an escape character
-					scanner.next();
-					char e = scanner.peek();
-					if (e == 'n') {
-						lit += '\n';
-					} else if (e == 't') {
-						lit += '\t';
-					} else if (e == '\\') {
-						lit += '\\';
-					} else if (e == '"') {
-						lit += '"';
-					} else if (e == 'b') {
-						lit += '\b';
-					} else if (e == 'r') {
-						lit += '\r';
-					} else if (e == 'f') {
-						lit += '\f';
-					} else if (e == '0') {
-						lit += '\0';
-					} else if (e == '\'') {
-						lit += '\'';
-					} else {
-						// unknown escape character. report an error
-						System.out.println("error from string literal escapes:"+e);
-						error(c, line, column);
-						return new Token(TokenClass.INVALID, line, column);
-					}
-				} else {
-					lit += scanner.peek();
-				}
-				scanner.next();
-			}
-			scanner.next();
-			return new Token(TokenClass.STRING_LITERAL, lit, line, column);
+	private static boolean matches(char[] keyword, char[] buf, int start) {
+		for (int i = 0; i < keyword.length; i++)
+			if (buf[start + i] != keyword[i])
+				return false;
+		return true;
+	}
 
+	/*
+	 * Escape sequences of string literals, or -1 if e may not follow a backslash in a
+	 * string literal.
+	 */
+	private static int stringEscape(char e) {
+		switch (e) {
+		case 'n':
+			return '\n';
+		case 't':
+			return '\t';
+		case '\\':
+			return '\\';
+		case '"':
+			return '"';
+		case 'b':
+			return '\b';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		case '0':
+			return '\0';
+		case '\'':
+			return '\'';
+		default:
+			return -1;
 		}
+	}
 
-		if (Character.isDigit(c)) {
-			// int literal
-			String lit = "";
-			lit+=c;
-			// while (Character.isDigit(scanner.peek())) {
-			while (!Character.isWhitespace(scanner.peek())) {
-				if (Character.isDigit(scanner.peek())) {
-					lit += scanner.peek();
-					c = scanner.next();
-				} else if(Character.isAlphabetic(scanner.peek())) {
-					// i.e we have an identifier like 247aday
-					error(c, line, column);
-					return new Token(TokenClass.INVALID, line, column);
-				} else {
-					break;
-					// end of the int literal, we are in an expression like 34*15+13
-				}
-			}
-			return new Token(TokenClass.INT_LITERAL, lit, line, column);
+	/*
+	 * Escape sequences of character literals, or -1 if e may not follow a backslash
+	 * in a character literal. Unlike in strings, '\b' and '\0' are only recognised
+	 * when the backslash is followed by the backspace or NUL character itself.
+	 */
+	private static int charEscape(char e) {
+		switch (e) {
+		case 'n':
+			return '\n';
+		case 't':
+			return '\t';
+		case '\\':
+			return '\\';
+		case '\'':
+			return '\'';
+		case '\b':
+			return '\b';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		case '\0':
+			return '\0';
+		case '"':
+			return '"';
+		default:
+			return -1;
 		}
+	}
 
-		if (c == '\'') {
-			// char literal
-			char a = scanner.next();
-			if (a == '\'') {
-				return new Token(TokenClass.CHAR_LITERAL, "", line, column);
-			} else {
-
-				if (scanner.peek() == '\'' && a != '\\') {
-					scanner.next();
-					return new Token(TokenClass.CHAR_LITERAL, Character.toString(a), line, column);
-				} else if (a == '\\') {
-					char e = scanner.next();
-					scanner.next();
-					if (e == 'n') {
-						return new Token(TokenClass.CHAR_LITERAL, "\n", line, column);
-					}
-					if (e == 't') {
-						return new Token(TokenClass.CHAR_LITERAL, "\t", line, column);
-					}
-					if (e == '\\') {
-						return new Token(TokenClass.CHAR_LITERAL, "\\", line, column);
-					}
-					if (e == '\'') {
-						return new Token(TokenClass.CHAR_LITERAL, "'", line, column);
-					}
-					if (e == '\b') {
-						return new Token(TokenClass.CHAR_LITERAL, "\b", line, column);
-					}
-					if (e == 'r') {
-						return new Token(TokenClass.CHAR_LITERAL, "\r", line, column);
-					}
-					if (e == 'f') {
-						return new Token(TokenClass.CHAR_LITERAL, "\f", line, column);
-					}
-					if (e == '\0') {
-						return new Token(TokenClass.CHAR_LITERAL, "\0", line, column);
-					}
-					if (e == '\"') {
-						return new Token(TokenClass.CHAR_LITERAL, "\"", line, column);
-					}
-
+	private TokenClass stringLiteral(int p, int start) {
+		final char[] buf = scanner.buffer;
+		final int len = scanner.length;
+		while (true) {
+			if (p == len)
+				return eof();
+			char ch = buf[p];
+			if (ch == '"')
+				break;
+			if (ch == '\\') {
+				// this is an escape character
+				p++;
+				if (p == len)
+					return eof();
+				char e = buf[p];
+				if (stringEscape(e) < 0) {
+					// unknown escape character. report an error
+					report(Diagnostics.Code.UNKNOWN_ESCAPE, null, e);
+					return invalid('"', p, start);
 				}
-				
-				
 			}
-
+			p++;
 		}
+		return token(TokenClass.STRING_LITERAL, p + 1, start);
+	}
 
-		if (Character.isAlphabetic(c) || c == '_') {
-			// assuming we are down here and have not returned a keyword, then this is an
-			// identifier
-			String id = Character.toString(c);
-			while ((Character.isLetterOrDigit(scanner.peek()) || scanner.peek() == '_')) {
-				id += scanner.peek();
-				scanner.next();
-			}
-			switch (id) {
-			case ("int"):
-				return new Token(TokenClass.INT, line, column);
-			case ("void"):
-				return new Token(TokenClass.VOID, line, column);
-			case ("char"):
-				return new Token(TokenClass.CHAR, line, column);
-			case ("if"):
-				return new Token(TokenClass.IF, line, column);
-
-			case ("else"):
-				return new Token(TokenClass.ELSE, line, column);
-			case ("while"):
-				return new Token(TokenClass.WHILE, line, column);
-			case ("return"):
-				return new Token(TokenClass.RETURN, line, column);
-
-			case ("struct"):
-				return new Token(TokenClass.STRUCT, line, column);
-			case ("sizeof"):
-				return new Token(TokenClass.SIZEOF, line, column);
-			}
-
-			return new Token(TokenClass.IDENTIFIER, id, line, column);
+	private TokenClass charLiteral(int p, int start) {
+		final char[] buf = scanner.buffer;
+		final int len = scanner.length;
+		if (p == len)
+			return eof();
+		char a = buf[p++];
+		if (a == '\'')
+			return token(TokenClass.CHAR_LITERAL, p, start);
+
+		if (p == len)
+			return eof();
+		if (buf[p] == '\'' && a != '\\')
+			return token(TokenClass.CHAR_LITERAL, p + 1, start);
+
+		if (a == '\\') {
+			if (p == len)
+				return eof();
+			char e = buf[p++];
+			// the closing quote is taken on trust
+			if (p == len)
+				return eof();
+			p++;
+			if (charEscape(e) >= 0)
+				return token(TokenClass.CHAR_LITERAL, p, start);
+		}
+		return invalid('\'', p, start);
+	}
 
+	/*
+	 * The data of a token, given its extent in the source: the name of identifiers, the
+	 * digits of integers and the (unescaped) value of string and character literals.
+	 */
+	static String text(TokenClass tokenClass, char[] buf, int start, int end) {
+		switch (tokenClass) {
+		case IDENTIFIER:
+		case INT_LITERAL:
+			return new String(buf, start, end - start);
+		case STRING_LITERAL:
+			return unescape(buf, start + 1, end - 1);
+		case CHAR_LITERAL:
+			if (end - start == 2)
+				return ""; // ''
+			if (buf[start + 1] != '\\')
+				return Character.toString(buf[start + 1]);
+			return Character.toString((char) charEscape(buf[start + 2]));
+		default:
+			return "";
 		}
+	}
 
-		// if we reach this point, it means we did not recognise a valid token
-		error(c, line, column);
-		return new Token(TokenClass.INVALID, line, column);
+	private static String unescape(char[] buf, int from, int to) {
+		int i = from;
+		while (i < to && buf[i] != '\\')
+			i++;
+		if (i == to)
+			return new String(buf, from, to - from);
+
+		StringBuilder lit = new StringBuilder(to - from);
+		lit.append(buf, from, i - from);
+		while (i < to) {
+			char ch = buf[i++];
+			if (ch == '\\')
+				ch = (char) stringEscape(buf[i++]);
+			lit.append(ch);
+		}
+		return lit.toString();
 	}
 
 }
@@ -3,13 +3,19 @@ package parser;
 import ast.*;
 
 import lexer.Token;
+import lexer.TokenBuffer;
 import lexer.Tokeniser;
 import lexer.Token.TokenClass;
+import util.Diagnostics;
+import util.NameTable;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * @author cdubach
@@ -17,35 +23,222 @@ import java.util.Queue;
 public class Parser {
 
 	private Token token;
+	private TokenClass tokenClass; // class of the current token, in either mode
 
 	// use for backtracking (useful for distinguishing decls from procs when parsing
-	// a program for instance)
-	private Queue<Token> buffer = new LinkedList<>();
+	// a program for instance). A circular window of the tokens after the current one:
+	// buffered tokens sit at window[(head + k) & (LOOKAHEAD - 1)] for k < buffered.
+	private static final int LOOKAHEAD = 4;
+	private final Token[] window = new Token[LOOKAHEAD];
+	private int head = 0;
+	private int buffered = 0;
 
 	private final Tokeniser tokeniser;
 
+	// when parsing from a token buffer, token is not used and pos is the index of the
+	// current token
+	private final TokenBuffer tokens;
+	private int pos = -1;
+	// tokens from this index on read as EOF, when parsing a single function
+	private final int end;
+
+	// a quiet parser reports nothing, and gives up at the first error
+	private final boolean quiet;
+
+	// the same as the tokeniser's, so that errors are reported in the order found
+	private final Diagnostics diagnostics;
+
 	public Parser(Tokeniser tokeniser) {
 		this.tokeniser = tokeniser;
+		this.tokens = null;
+		this.end = Integer.MAX_VALUE;
+		this.quiet = false;
+		this.diagnostics = tokeniser.getDiagnostics();
 	}
 
+	public Parser(TokenBuffer tokens) {
+		this(tokens, Integer.MAX_VALUE, false);
+	}
+
+	private Parser(TokenBuffer tokens, int end, boolean quiet) {
+		this.tokeniser = null;
+		this.tokens = tokens;
+		this.end = end;
+		this.quiet = quiet;
+		this.diagnostics = tokens.getDiagnostics();
+	}
+
+	/*
+	 * Returns null if parsing was abandoned, after reaching the error limit.
+	 */
 	public Program parse() {
+		if (parallel && tokens != null) {
+			Program program = parseInParallel();
+			if (program != null)
+				return program;
+		}
+
 		// get the first token
 		nextToken();
 
-		return parseProgram();
+		try {
+			return parseProgram();
+		} catch (GiveUp e) {
+			diagnostics.report(Diagnostics.Code.TOO_MANY_ERRORS, null);
+			return null;
+		}
+	}
+
+	private boolean parallel = false;
+
+	/*
+	 * Parses function bodies in parallel, see parseInParallel().
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/*
+	 * Parses in two phases: first the declarations before the functions, and a skim
+	 * over the functions which matches braces to find where each one ends; then the
+	 * functions, concurrently, each by a parser of its own confined to its tokens.
+	 * This is only attempted on input without errors, returning null as soon as one
+	 * is found, in which case the caller parses again sequentially to report them
+	 * exactly as usual.
+	 */
+	private Program parseInParallel() {
+		if (!tokens.lexAll())
+			return null;
+		try {
+			Parser head = new Parser(tokens, Integer.MAX_VALUE, true);
+			head.nextToken();
+			head.parseIncludes();
+			List<StructTypeDecl> structs = head.parseStructDeclRep();
+			List<VarDecl> vars = head.parseVarDeclRep(DECL_SYNC);
+
+			int[] bounds = skimFunctions(head.pos);
+			if (bounds == null)
+				return null;
+			FunDecl[] funs = new FunDecl[bounds.length - 1];
+			ForkJoinPool.commonPool().invoke(new ParseFunctions(tokens, bounds, funs, 0, funs.length));
+			return new Program(structs, vars, Arrays.asList(funs));
+		} catch (RuntimeException | StackOverflowError e) {
+			// a syntax error, or a crash which the sequential parse will reproduce (the
+			// worker threads may also have less stack than the main one)
+			return null;
+		}
+	}
+
+	/*
+	 * The token index at which each function starts, from the given one, followed by
+	 * the index of EOF; or null if the tokens do not look like a list of functions.
+	 */
+	private int[] skimFunctions(int i) {
+		List<Integer> bounds = new ArrayList<Integer>();
+		while (true) {
+			TokenClass c = tokens.tokenClass(i);
+			bounds.add(i);
+			if (c == TokenClass.EOF)
+				break;
+			if (!TYPE_FIRST.contains(c))
+				return null;
+			// the header, up to the body
+			while (c != TokenClass.LBRA) {
+				if (c == TokenClass.RBRA || c == TokenClass.SC || c == TokenClass.EOF)
+					return null;
+				c = tokens.tokenClass(++i);
+			}
+			// and the body, up to its matching brace
+			int depth = 0;
+			do {
+				if (c == TokenClass.LBRA)
+					depth++;
+				else if (c == TokenClass.RBRA)
+					depth--;
+				else if (c == TokenClass.EOF)
+					return null;
+				c = tokens.tokenClass(++i);
+			} while (depth > 0);
+		}
+		int[] ret = new int[bounds.size()];
+		for (int k = 0; k < ret.length; k++)
+			ret[k] = bounds.get(k);
+		return ret;
+	}
+
+	@SuppressWarnings("serial")
+	private static class ParseFunctions extends RecursiveAction {
+		// functions parsed by one task, a function takes a few microseconds
+		private static final int BATCH = 16;
+
+		private final TokenBuffer tokens;
+		private final int[] bounds;
+		private final FunDecl[] funs;
+		private final int from;
+		private final int to;
+
+		ParseFunctions(TokenBuffer tokens, int[] bounds, FunDecl[] funs, int from, int to) {
+			this.tokens = tokens;
+			this.bounds = bounds;
+			this.funs = funs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > BATCH) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ParseFunctions(tokens, bounds, funs, from, mid),
+						new ParseFunctions(tokens, bounds, funs, mid, to));
+				return;
+			}
+			for (int k = from; k < to; k++) {
+				Parser p = new Parser(tokens, bounds[k + 1], true);
+				p.pos = bounds[k] - 1;
+				p.nextToken();
+				funs[k] = p.parseFunDecl();
+				if (p.tokenClass != TokenClass.EOF)
+					throw new GiveUp(); // did not end where the skim did
+			}
+		}
 	}
 
 	public int getErrorCount() {
 		return error;
 	}
 
+	/*
+	 * Stops parsing after the given number of errors, 0 (the default) for no limit.
+	 */
+	public void setErrorLimit(int limit) {
+		errorLimit = limit;
+	}
+
 	private int error = 0;
-	private Token lastErrorToken;
+	private int errorLimit = 0;
+	private int consumed = 0; // number of tokens consumed so far
+	private int lastErrorToken = -1;
+
+	// panic mode: set once an error is reported, so that the errors which follow from
+	// it are not, until recover() has skipped to a point where parsing can resume
+	private boolean recovering = false;
+
+	@SuppressWarnings("serial")
+	private static class GiveUp extends RuntimeException {
+		GiveUp() {
+			super(null, null, false, false);
+		}
+	}
 
 	private void error(TokenClass... expected) {
+		if (quiet) {
+			throw new GiveUp();
+		}
 
-		if (lastErrorToken == token) {
-			// skip this error, same token causing trouble
+		if (lastErrorToken == consumed || recovering) {
+			// skip this error, same token causing trouble, or a consequence of the
+			// last one
 			return;
 		}
 
@@ -56,72 +249,142 @@ public class Parser {
 			sb.append(e);
 			sep = "|";
 		}
-		System.out.println("Parsing error: expected (" + sb + ") found (" + token + ") at " + token.position);
+		Token token = currentToken();
+		diagnostics.report(Diagnostics.Code.UNEXPECTED_TOKEN, token.position, sb.toString(), token);
 		error++;
-		lastErrorToken = token;
+		lastErrorToken = consumed;
+		recovering = true;
+		if (error == errorLimit)
+			throw new GiveUp();
 	}
 
+	// where panic mode resumes inside braces: after a ";", or at a "}", a declaration
+	// or the start of a statement
+	private static final Set<TokenClass> BLOCK_SYNC = EnumSet.of(TokenClass.SC, TokenClass.RBRA, TokenClass.LBRA,
+			TokenClass.WHILE, TokenClass.IF, TokenClass.RETURN, TokenClass.INT, TokenClass.CHAR, TokenClass.VOID,
+			TokenClass.STRUCT, TokenClass.EOF);
+	// and at the top level: at the start of the next declaration
+	private static final Set<TokenClass> DECL_SYNC = EnumSet.of(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID,
+			TokenClass.STRUCT, TokenClass.EOF);
+
 	/*
-	 * Look ahead the i^th element from the stream of token. i should be >= 1
+	 * If an error has been reported since the last call, skips tokens up to one of the
+	 * given synchronisation tokens (past it, for a ";") and starts reporting errors
+	 * again. Called between the elements of lists.
 	 */
-	private Token lookAhead(int i) {
-		// ensures the buffer has the element we want to look ahead
-		while (buffer.size() < i)
-			buffer.add(tokeniser.nextToken());
-		assert buffer.size() >= i;
+	private void recover(Set<TokenClass> sync) {
+		if (!recovering)
+			return;
+		while (!accept(sync))
+			nextToken();
+		if (accept(TokenClass.SC))
+			nextToken();
+		recovering = false;
+	}
 
-		int cnt = 1;
-		for (Token t : buffer) {
-			if (cnt == i)
-				return t;
-			cnt++;
+	private Token currentToken() {
+		return tokens != null ? tokens.token(pos) : token;
+	}
+
+	private String tokenData() {
+		return tokens != null ? tokens.text(pos) : token.data;
+	}
+
+	/*
+	 * NameTable id of the current token, normally an identifier.
+	 */
+	private int tokenName() {
+		if (tokens != null && tokenClass == TokenClass.IDENTIFIER)
+			return tokens.nameId(pos);
+		return NameTable.intern(tokenData());
+	}
+
+	/*
+	 * Look ahead the i^th element from the stream of token. i should be >= 1
+	 */
+	private TokenClass lookAhead(int i) {
+		if (tokens != null) {
+			if (pos + i >= end || !tokens.fill(pos + i))
+				return TokenClass.EOF;
+			return tokens.tokenClass(pos + i);
 		}
 
-		assert false; // should never reach this
-		return null;
+		if (i > LOOKAHEAD)
+			throw new IllegalArgumentException("cannot look " + i + " tokens ahead");
+
+		// ensures the buffer has the element we want to look ahead
+		while (buffered < i) {
+			window[(head + buffered) & (LOOKAHEAD - 1)] = tokeniser.nextToken();
+			buffered++;
+		}
+		return window[(head + i - 1) & (LOOKAHEAD - 1)].tokenClass;
 	}
 
 	/*
 	 * Consumes the next token from the tokeniser or the buffer if not empty.
 	 */
 	private void nextToken() {
-		if (!buffer.isEmpty())
-			token = buffer.remove();
-		else
+		consumed++;
+		if (tokens != null) {
+			if (pos + 1 >= end) {
+				pos = end;
+				tokenClass = TokenClass.EOF;
+				return;
+			}
+			// the stream ends with EOF, which is returned forever after
+			if (tokens.fill(pos + 1))
+				pos++;
+			tokenClass = tokens.tokenClass(pos);
+			return;
+		}
+		if (buffered > 0) {
+			token = window[head];
+			window[head] = null;
+			head = (head + 1) & (LOOKAHEAD - 1);
+			buffered--;
+		} else
 			token = tokeniser.nextToken();
+		tokenClass = token.tokenClass;
 	}
 
 	/*
 	 * If the current token is equals to the expected one, then skip it, otherwise
-	 * report an error. Returns the expected token or null if an error occurred.
+	 * report an error. Returns false if an error occurred.
 	 */
-	private Token expect(TokenClass... expected) {
-		for (TokenClass e : expected) {
-			if (e == token.tokenClass) {
-				Token cur = token;
-				nextToken();
-				return cur;
-			}
+	private boolean expect(TokenClass expected) {
+		if (expected == tokenClass) {
+			nextToken();
+			return true;
 		}
 
 		error(expected);
-		return null;
+		return false;
+	}
+
+	/*
+	 * Returns true if the current token is equals to the expected one.
+	 */
+	private boolean accept(TokenClass expected) {
+		return expected == tokenClass;
 	}
 
 	/*
-	 * Returns true if the current token is equals to any of the expected ones.
+	 * Returns true if the current token is in the given set, one of the sets below.
 	 */
-	private boolean accept(TokenClass... expected) {
-		boolean result = false;
-		for (TokenClass e : expected)
-			result |= (e == token.tokenClass);
-		return result;
+	private boolean accept(Set<TokenClass> expected) {
+		return expected.contains(tokenClass);
 	}
 
+	// FIRST(type), which also starts vardecl, fundecl, params and typecast
+	private static final Set<TokenClass> TYPE_FIRST = EnumSet.of(TokenClass.INT, TokenClass.CHAR,
+			TokenClass.VOID, TokenClass.STRUCT);
+	// where a sequence of statements ends: the "}" of the block, or the end of input
+	private static final Set<TokenClass> STMTS_END = EnumSet.of(TokenClass.RBRA, TokenClass.EOF);
+
 	private Program parseProgram() {
 		parseIncludes();
 		List<StructTypeDecl> structs = parseStructDeclRep();
-		List<VarDecl> vars = parseVarDeclRep();
+		List<VarDecl> vars = parseVarDeclRep(DECL_SYNC);
 		List<FunDecl> funs = parseFunDeclRep();
 		expect(TokenClass.EOF);
 		return new Program(structs, vars, funs);
@@ -129,19 +392,21 @@ public class Parser {
 
 	// includes are ignored, so does not need to return an AST node
 	private void parseIncludes() {
-		if (accept(TokenClass.INCLUDE)) {
+		while (accept(TokenClass.INCLUDE)) {
 			nextToken();
 			expect(TokenClass.STRING_LITERAL);
-			parseIncludes();
 		}
 
 	}
 
 	private List<StructTypeDecl> parseStructDeclRep() {
-		List<StructTypeDecl> ret = new LinkedList<StructTypeDecl>();
-		if (accept(TokenClass.STRUCT)) {
+		List<StructTypeDecl> ret = new ArrayList<StructTypeDecl>();
+		while (true) {
+			recover(DECL_SYNC);
+			if (!accept(TokenClass.STRUCT)) {
+				break;
+			}
 			ret.add(parseStructDecl());
-			ret.addAll(parseStructDeclRep());
 		}
 		return ret;
 	}
@@ -151,9 +416,9 @@ public class Parser {
 		StructType structType = parseStructType();
 		expect(TokenClass.LBRA);
 
-		List<VarDecl> varDecls = new LinkedList<VarDecl>();
+		List<VarDecl> varDecls = new ArrayList<VarDecl>();
 		varDecls.add(parseVarDecl());
-		varDecls.addAll(parseVarDeclRep());
+		parseVarDeclRep(varDecls, BLOCK_SYNC);
 
 		expect(TokenClass.RBRA);
 		expect(TokenClass.SC);
@@ -161,41 +426,48 @@ public class Parser {
 		return new StructTypeDecl(structType, varDecls);
 	}
 
-	private List<VarDecl> parseVarDeclRep() {
+	private List<VarDecl> parseVarDeclRep(Set<TokenClass> sync) {
+		List<VarDecl> ret = new ArrayList<VarDecl>();
+		parseVarDeclRep(ret, sync);
+		return ret;
+	}
+
+	private void parseVarDeclRep(List<VarDecl> ret, Set<TokenClass> sync) {
 		//
 		// vardeclRep ::= vardecl vardeclRep | ε
 		// check here is to check that this is a variable decleration rather than a
-		// function declaration
-		List<VarDecl> ret = new LinkedList<VarDecl>();
+		// function declaration. The repetition is a loop rather than a recursion, so
+		// long lists neither get copied nor grow the stack.
 		// this accept crashes sometimes?
 		// System.out.print(token);
-		if (accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID, TokenClass.STRUCT)) {
+		while (true) {
+			recover(sync);
+			if (!accept(TYPE_FIRST)) {
+				return;
+			}
 			// System.out.print("L");
-			Token look = lookAhead(2);
-			if (look != null) {
-				// System.out.print("N");
-				// should this be LPAR
-				if (look.tokenClass != TokenClass.LPAR) {
-					ret.add(parseVarDecl());
-					ret.addAll(parseVarDeclRep());
-				}
+			TokenClass look = lookAhead(2);
+			// System.out.print("N");
+			// should this be LPAR
+			if (look == TokenClass.LPAR) {
+				return;
 			}
+			ret.add(parseVarDecl());
 		}
-		return ret;
 
 	}
 
 	private VarDecl parseVarDecl() {
 		// vardecl ::= type IDENT (ε | arrayDecl)";"
 		Type type = parseType();
-		String varname = token.data;
+		int varname = tokenName();
 		expect(TokenClass.IDENTIFIER);
 		if (accept(TokenClass.SC)) {
 			expect(TokenClass.SC);
 		} else if (accept(TokenClass.LSBR)) {
 			int len = parseArrayDecl();
 			expect(TokenClass.SC);
-			type = new ArrayType(type, len);
+			type = Types.array(type, len);
 		} else {
 			error(TokenClass.SC, TokenClass.LSBR);
 		}
@@ -209,7 +481,7 @@ public class Parser {
 		int ret = 0;
 		expect(TokenClass.LSBR);
 		if (accept(TokenClass.INT_LITERAL)) {
-			ret = Integer.valueOf(token.data);
+			ret = Integer.valueOf(tokenData());
 		}
 		expect(TokenClass.INT_LITERAL);
 		expect(TokenClass.RSBR);
@@ -219,10 +491,13 @@ public class Parser {
 	private List<FunDecl> parseFunDeclRep() {
 		// funcdeclRep::= functdecl funcdeclRep | ε
 
-		List<FunDecl> ret = new LinkedList<FunDecl>();
-		if (accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID, TokenClass.STRUCT)) {
+		List<FunDecl> ret = new ArrayList<FunDecl>();
+		while (true) {
+			recover(DECL_SYNC);
+			if (!accept(TYPE_FIRST)) {
+				break;
+			}
 			ret.add(parseFunDecl());
-			ret.addAll(parseFunDeclRep());
 		}
 
 		return ret;
@@ -231,7 +506,7 @@ public class Parser {
 	private FunDecl parseFunDecl() {
 		// fundecl ::= type IDENT "(" params ")" block # function declaration
 		Type type = parseType();
-		String name = token.data;
+		int name = tokenName();
 		expect(TokenClass.IDENTIFIER);
 		expect(TokenClass.LPAR);
 		List<VarDecl> params = parseParams();
@@ -243,23 +518,27 @@ public class Parser {
 	private Type parseType() {
 		// ("int" | "char" | "void" | structtype) optionalStar
 		Type ret = null;
-		if (accept(TokenClass.INT)) {
+		switch (tokenClass) {
+		case INT:
 			nextToken();
 			ret = BaseType.INT;
-		} else if (accept(TokenClass.CHAR)) {
+			break;
+		case CHAR:
 			nextToken();
 			ret = BaseType.CHAR;
-		} else if (accept(TokenClass.VOID)) {
+			break;
+		case VOID:
 			nextToken();
 			ret = BaseType.VOID;
-		} else {
+			break;
+		default:
 			// parse structType, else we fail
 			ret = parseStructType();
 		}
 
 		while (accept(TokenClass.ASTERIX)) {
 			// this is a pointer
-			ret = new PointerType(ret);
+			ret = Types.pointer(ret);
 			expect(TokenClass.ASTERIX);
 		}
 		return ret;
@@ -269,52 +548,48 @@ public class Parser {
 	private StructType parseStructType() {
 		// "struct" IDENT
 		expect(TokenClass.STRUCT);
-		StructType ret = new StructType(token.data);
+		StructType ret = Types.struct(tokenName());
 		expect(TokenClass.IDENTIFIER);
 		return ret;
 	}
 
 	private List<VarDecl> parseParams() {
 		// params ::= type IDENT extraParam | ε
-		List<VarDecl> ret = new LinkedList<VarDecl>();
-		if (accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID, TokenClass.STRUCT)) {
+		List<VarDecl> ret = new ArrayList<VarDecl>();
+		if (accept(TYPE_FIRST)) {
 			Type t = parseType();
-			String id = token.data;
+			int id = tokenName();
 			expect(TokenClass.IDENTIFIER);
 			ret.add(new VarDecl(t, id));
-			ret.addAll(parseExtraParam());
+			parseExtraParam(ret);
 		}
 		return ret;
 	}
 
-	private List<VarDecl> parseExtraParam() {
+	private void parseExtraParam(List<VarDecl> ret) {
 		// extraParam ::= "," type IDENT extraParam | ε
-		List<VarDecl> ret = new LinkedList<VarDecl>();
-		if (accept(TokenClass.COMMA)) {
+		while (accept(TokenClass.COMMA)) {
 			expect(TokenClass.COMMA);
 			Type t = parseType();
-			String id = token.data;
+			int id = tokenName();
 			expect(TokenClass.IDENTIFIER);
 			ret.add(new VarDecl(t, id));
-			ret.addAll(parseExtraParam());
 		}
-		return ret;
 	}
 
 	private List<Stmt> parseStmtRep() {
 		// stmtRep ::= stmt stmtRep | ε
 		// follow set of stmtRep is just "}", since it is right-recursive (is that a
 		// term?) and only called from block, so check for that
-		List<Stmt> ret = new LinkedList<Stmt>();
-		if (accept(TokenClass.RBRA)) {
-			// do nothing
-			return ret;
-		} else if (accept(TokenClass.EOF)) {
-			// we've been crashing after this recurses infinitely after hitting EOF
-			return ret;
-		} else {
+		List<Stmt> ret = new ArrayList<Stmt>();
+		// we've been crashing after this recurses infinitely after hitting EOF, so stop
+		// there too
+		while (true) {
+			recover(BLOCK_SYNC);
+			if (accept(STMTS_END)) {
+				break;
+			}
 			ret.add(parseStmt());
-			ret.addAll(parseStmtRep());
 		}
 		return ret;
 	}
@@ -326,16 +601,20 @@ public class Parser {
 		 * | ε) ";" # assignment vs expression statement, e.g. a function call
 		 */
 		Stmt ret = null;
-		if (accept(TokenClass.LBRA)) {
+		switch (tokenClass) {
+		case LBRA:
 			ret = parseBlock();
-		} else if (accept(TokenClass.WHILE)) {
+			break;
+		case WHILE: {
 			expect(TokenClass.WHILE);
 			expect(TokenClass.LPAR);
 			Expr e = parseExp();
 			expect(TokenClass.RPAR);
 			Stmt c = parseStmt();
 			ret = new While(e, c);
-		} else if (accept(TokenClass.IF)) {
+			break;
+		}
+		case IF: {
 			expect(TokenClass.IF);
 			expect(TokenClass.LPAR);
 			Expr ex = parseExp();
@@ -343,11 +622,14 @@ public class Parser {
 			Stmt code = parseStmt();
 			Stmt el = parseMaybeElse();
 			ret = new If(ex, code, el);
-		} else if (accept(TokenClass.RETURN)) {
+			break;
+		}
+		case RETURN:
 			expect(TokenClass.RETURN);
 			ret = new Return(parseMaybeExp());
 			expect(TokenClass.SC);
-		} else {
+			break;
+		default: {
 			Expr e = parseExp();
 			Expr o = parseMaybeAssign();
 			expect(TokenClass.SC);
@@ -357,6 +639,7 @@ public class Parser {
 				ret = new Assign(e, o);
 			}
 		}
+		}
 		return ret;
 
 	}
@@ -394,7 +677,7 @@ public class Parser {
 	private Block parseBlock() {
 		// block ::= "{" vardeclRep stmtRep "}"
 		expect(TokenClass.LBRA);
-		List<VarDecl> varDecls = parseVarDeclRep();
+		List<VarDecl> varDecls = parseVarDeclRep(BLOCK_SYNC);
 		List<Stmt> code = parseStmtRep();
 		expect(TokenClass.RBRA);
 		return new Block(varDecls, code);
@@ -404,7 +687,10 @@ public class Parser {
 		try {
 			return parseBinOp();
 		} catch (StackOverflowError e) {
-			System.out.println("Failed to parse Expression due to infinite recursion\n");
+			if (quiet) {
+				throw new GiveUp();
+			}
+			diagnostics.report(Diagnostics.Code.EXPRESSION_TOO_DEEP, null);
 			error();
 
 			nextToken();
@@ -427,24 +713,32 @@ public class Parser {
 //			             | arrayaccess | fieldaccess | valueat | funcall | sizeof | typecast
 
 			Expr ret = null;
-			if (accept(TokenClass.IDENTIFIER)) {
+			switch (tokenClass) {
+			case IDENTIFIER:
 				ret = parseIdentOrFunCall();
-			} else if (accept(TokenClass.INT_LITERAL)) {
-				ret = new IntLiteral(Integer.parseInt(token.data));
+				break;
+			case INT_LITERAL:
+				ret = new IntLiteral(Integer.parseInt(tokenData()));
 				expect(TokenClass.INT_LITERAL);
-			} else if (accept(TokenClass.CHAR_LITERAL)) {
-				ret = new ChrLiteral(token.data.charAt(0));
+				break;
+			case CHAR_LITERAL:
+				ret = new ChrLiteral(tokenData().charAt(0));
 				expect(TokenClass.CHAR_LITERAL);
-			} else if (accept(TokenClass.STRING_LITERAL)) {
-				ret = new StrLiteral(token.data);
+				break;
+			case STRING_LITERAL:
+				ret = new StrLiteral(tokenData());
 				expect(TokenClass.STRING_LITERAL);
-			} else if (accept(TokenClass.LPAR)) {
+				break;
+			case LPAR:
 				ret = parseBracketOrTypeCast();
-			} else if (accept(TokenClass.ASTERIX)) {
+				break;
+			case ASTERIX:
 				ret = parseValueAt();
-			} else if (accept(TokenClass.SIZEOF)) {
+				break;
+			case SIZEOF:
 				ret = parseSizeOf();
-			} else {
+				break;
+			default:
 				error(TokenClass.IDENTIFIER, TokenClass.INT_LITERAL, TokenClass.CHAR_LITERAL, TokenClass.STRING_LITERAL,
 						TokenClass.LPAR, TokenClass.ASTERIX, TokenClass.SIZEOF);
 				nextToken();
@@ -455,7 +749,10 @@ public class Parser {
 			ret = parseArrayOrFieldAccess(ret);
 			return ret;
 		} catch (StackOverflowError e) {
-			System.out.println("Failed to parse Expression due to infinite recursion\n");
+			if (quiet) {
+				throw new GiveUp();
+			}
+			diagnostics.report(Diagnostics.Code.EXPRESSION_TOO_DEEP, null);
 			error();
 
 			nextToken();
@@ -471,7 +768,7 @@ public class Parser {
 
 	private Expr parseIdentOrFunCall() {
 		// identOrFunCall := IDENT (funCall | ε)
-		String id = token.data;
+		int id = tokenName();
 		expect(TokenClass.IDENTIFIER);
 		if (accept(TokenClass.LPAR)) {
 			List<Expr> args = parseFunCall();
@@ -491,23 +788,20 @@ public class Parser {
 	private List<Expr> parseMaybeArgs() {
 		// maybeArgs ::= exp extraArg |ε
 		// if we encounter a closing paren, then we have reached the end of the args
-		List<Expr> ret = new LinkedList<Expr>();
+		List<Expr> ret = new ArrayList<Expr>();
 		if (!accept(TokenClass.RPAR)) {
 			ret.add(parseExp());
-			ret.addAll(parseExtraArg());
+			parseExtraArg(ret);
 		}
 		return ret;
 	}
 
-	private List<Expr> parseExtraArg() {
+	private void parseExtraArg(List<Expr> ret) {
 		// extrArg ::= "," exp extraArg | ε
-		List<Expr> ret = new LinkedList<Expr>();
-		if (accept(TokenClass.COMMA)) {
+		while (accept(TokenClass.COMMA)) {
 			expect(TokenClass.COMMA);
 			ret.add(parseExp());
-			ret.addAll(parseExtraArg());
 		}
-		return ret;
 	}
 
 	private SizeOfExpr parseSizeOf() {
@@ -522,7 +816,7 @@ public class Parser {
 	private Expr parseBracketOrTypeCast() {
 		// bracketsOrtypeCast := "(" ( brackets | typeCast)
 		expect(TokenClass.LPAR);
-		if (accept(TokenClass.INT, TokenClass.CHAR, TokenClass.VOID, TokenClass.STRUCT)) {
+		if (accept(TYPE_FIRST)) {
 			return parseTypeCast();
 		} else {
 			return parseBrackets();
@@ -568,163 +862,68 @@ public class Parser {
 	private FieldAccessExpr parseFieldAccess(Expr struct) {
 		// fieldaccess ::= "." IDENT # structure field member access
 		expect(TokenClass.DOT);
-		String id = token.data;
+		int id = tokenName();
 		expect(TokenClass.IDENTIFIER);
 		return new FieldAccessExpr(struct, id);
 	}
 
-	private Expr parseBinOp() {
-		// binaryOp ::= or
-		return parseOr();
-	}
-
-	private Expr parseOr() {
-		// or ::= and ("||" and)*
-		Expr ret = parseAnd();
-
-		ret = parseOrRep(ret);
-
-		return ret;
-	}
-
-	private Expr parseOrRep(Expr left) {
-		if (accept(TokenClass.OR)) {
-			expect(TokenClass.OR);
-			Expr right = parseAnd();
-			Expr ret = parseOrRep(new BinOp(left, Op.OR, right));
-			return ret;
-		}
-		return left;
-	}
-
-	private Expr parseAnd() {
-		// and :: = equality ("&&" equality )*
-		Expr ret = parseEquality();
-
-		ret = parseAndRep(ret);
-
-		return ret;
-	}
-
-	private Expr parseAndRep(Expr left) {
-		if (accept(TokenClass.AND)) {
-			expect(TokenClass.AND);
-			Expr right = parseEquality();
-			Expr ret = parseAndRep(new BinOp(left, Op.AND, right));
-			return ret;
-		}
-		return left;
-	}
-
-	private Expr parseEquality() {
-		// equality ::= comparision (("!="|"==") comparison )*
-		Expr ret = parseComparision();
-
-		ret = parseEqualityRep(ret);
-
-		return ret;
-	}
-
-	private Expr parseEqualityRep(Expr left) {
-		if (accept(TokenClass.EQ)) {
-			expect(TokenClass.EQ);
-			Expr right = parseComparision();
-			Expr ret = parseEqualityRep(new BinOp(left, Op.EQ, right));
-			return ret;
-		} else if (accept(TokenClass.NE)) {
-			expect(TokenClass.NE);
-			Expr right = parseComparision();
-			Expr ret = parseEqualityRep(new BinOp(left, Op.NE, right));
-			return ret;
-		}
-		return left;
-	}
-
-	private Expr parseComparision() {
-		// comparision ::= addition ( ( ">" | ">=" | "<" | "<=" ) addition )*
-		Expr ret = parseAddition();
-
-		ret = parseComparisionRep(ret);
-
-		return ret;
-	}
-
-	private Expr parseComparisionRep(Expr left) {
-		if (accept(TokenClass.GT)) {
-			expect(TokenClass.GT);
-			Expr right = parseAddition();
-			Expr ret = parseComparisionRep(new BinOp(left, Op.GT, right));
-			return ret;
-		} else if (accept(TokenClass.GE)) {
-			expect(TokenClass.GE);
-			Expr right = parseAddition();
-			Expr ret = parseComparisionRep(new BinOp(left, Op.GE, right));
-			return ret;
-		} else if (accept(TokenClass.LT)) {
-			expect(TokenClass.LT);
-			Expr right = parseAddition();
-			Expr ret = parseComparisionRep(new BinOp(left, Op.LT, right));
-			return ret;
-		} else if (accept(TokenClass.LE)) {
-			expect(TokenClass.LE);
-			Expr right = parseAddition();
-			Expr ret = parseComparisionRep(new BinOp(left, Op.LE, right));
-			return ret;
-		}
-		return left;
-	}
-
-	private Expr parseAddition() {
-		// addition ::= multiplication ( ( "-" | "+" ) multiplication )*
-		Expr ret = parseMultiplication();
-		ret = parseAdditionRep(ret);
-		return ret;
+	/*
+	 * Binary operators, by the token they are written with, and their precedence.
+	 * All of them are left associative:
+	 *   or ::= and ("||" and)*
+	 *   and :: = equality ("&&" equality )*
+	 *   equality ::= comparision (("!="|"==") comparison )*
+	 *   comparision ::= addition ( ( ">" | ">=" | "<" | "<=" ) addition )*
+	 *   addition ::= multiplication ( ( "-" | "+" ) multiplication )*
+	 *   multiplication::= unary ( ( "/" | "*" | "%" ) unary )*
+	 */
+	private static final Op[] binaryOp = new Op[TokenClass.values().length];
+	private static final int[] precedence = new int[TokenClass.values().length];
+
+	private static void binaryOp(TokenClass t, Op op, int prec) {
+		binaryOp[t.ordinal()] = op;
+		precedence[t.ordinal()] = prec;
+	}
+
+	static {
+		binaryOp(TokenClass.OR, Op.OR, 1);
+		binaryOp(TokenClass.AND, Op.AND, 2);
+		binaryOp(TokenClass.EQ, Op.EQ, 3);
+		binaryOp(TokenClass.NE, Op.NE, 3);
+		binaryOp(TokenClass.GT, Op.GT, 4);
+		binaryOp(TokenClass.GE, Op.GE, 4);
+		binaryOp(TokenClass.LT, Op.LT, 4);
+		binaryOp(TokenClass.LE, Op.LE, 4);
+		binaryOp(TokenClass.PLUS, Op.ADD, 5);
+		binaryOp(TokenClass.MINUS, Op.SUB, 5);
+		binaryOp(TokenClass.DIV, Op.DIV, 6);
+		binaryOp(TokenClass.ASTERIX, Op.MUL, 6);
+		binaryOp(TokenClass.REM, Op.MOD, 6);
 	}
 
-	private Expr parseAdditionRep(Expr left) {
-		if (accept(TokenClass.PLUS)) {
-			expect(TokenClass.PLUS);
-			Expr right = parseMultiplication();
-			Expr ret = parseAdditionRep(new BinOp(left, Op.ADD, right));
-			return ret;
-		} else if (accept(TokenClass.MINUS)) {
-			expect(TokenClass.MINUS);
-			Expr right = parseMultiplication();
-			Expr ret = parseAdditionRep(new BinOp(left, Op.SUB, right));
-			return ret;
-		}
-		return left;
+	private Expr parseBinOp() {
+		// binaryOp ::= or
+		return parseBinOp(1);
 	}
 
-	private Expr parseMultiplication() {
-		// multiplication::= unary ( ( "/" | "*" | "%" ) unary )*
+	/*
+	 * Precedence climbing: parses a chain of unary expressions joined by operators of
+	 * at least the given precedence. Operands bind to the operator of higher
+	 * precedence, and to the left one of equal precedence.
+	 */
+	private Expr parseBinOp(int minPrecedence) {
 		Expr ret = parseUnary();
-		ret = parseMultiplicationRep(ret);
-		return ret;
-
-	}
-	
-	private Expr  parseMultiplicationRep(Expr left) {
-		if(accept(TokenClass.DIV)) {
-			expect(TokenClass.DIV);
-			Expr right = parseUnary();
-			Expr ret = parseMultiplicationRep(new BinOp(left,Op.DIV,right));
-			return ret;
-		}else if (accept(TokenClass.ASTERIX)) {
-			expect(TokenClass.ASTERIX);
-			Expr right = parseUnary();
-			Expr ret = parseMultiplicationRep(new BinOp(left,Op.MUL,right));
-			return ret;
-		}else if (accept(TokenClass.REM)) {
-			expect(TokenClass.REM);
-			Expr right = parseUnary();
-			Expr ret = parseMultiplicationRep(new BinOp(left,Op.MOD,right));
-			return ret;
+		while (true) {
+			Op op = binaryOp[tokenClass.ordinal()];
+			int prec = precedence[tokenClass.ordinal()];
+			if (op == null || prec < minPrecedence)
+				return ret;
+			nextToken();
+			Expr right = parseBinOp(prec + 1);
+			ret = new BinOp(ret, op, right);
 		}
-		return left;
-		
 	}
-	
+
 	private Expr parseUnary() {
 		//unary		::= "-" unary  | noOpExp
 		if(accept(TokenClass.MINUS)) {
@@ -1,5 +1,6 @@
 package sem;
 
+import util.Diagnostics;
 
 /**
  * 
@@ -8,6 +9,7 @@ package sem;
  */
 public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
 	private int errors;
+	private Diagnostics diagnostics = Diagnostics.immediate();
 	
 	
 	public BaseSemanticVisitor() {
@@ -17,9 +19,17 @@ public abstract class BaseSemanticVisitor<T> implements SemanticVisitor<T> {
 	public int getErrorCount() {
 		return errors;
 	}
+
+	public void setDiagnostics(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	protected Diagnostics getDiagnostics() {
+		return diagnostics;
+	}
 	
 	protected void error(String message) {
-		System.err.println("semantic error: " + message);
+		diagnostics.report(Diagnostics.Code.SEMANTIC, null, message);
 		errors++;
 	}
 }
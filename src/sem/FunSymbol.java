@@ -7,7 +7,7 @@ public class FunSymbol extends Symbol {
 	FunDecl function;
 
 	public FunSymbol(FunDecl f) {
-		super(f.name);
+		super(f.name, f.nameId);
 		function = f;
 	}
 
@@ -0,0 +1,587 @@
+package sem;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ast.*;
+import util.Diagnostics;
+
+/**
+ * Name analysis and type checking in a single walk of the AST, with the same results
+ * as NameAnalysisVisitor followed by TypeCheckVisitor: each node is resolved and then
+ * typed. Name errors and type errors are held back separately and reported name
+ * errors first, so the diagnostics come out as they would from the two passes.
+ *
+ * In parallel, every function is declared first, then the global scope is frozen
+ * and the bodies are checked concurrently, each seeing the globals declared before
+ * it. Their diagnostics are put back together in source order.
+ */
+public class FusedSemanticVisitor extends BaseSemanticVisitor<Type> {
+
+	private final SymbolTable symbols;
+	// resolves the names of the subtrees the type checker does not look at
+	private final NameAnalysisVisitor names;
+	private final StructRegistry structs;
+	private boolean parallel = false;
+
+	// what the name analysis would have reported, and what the type checker would
+	// have reported and printed to stdout
+	private Diagnostics nameErrors = new Diagnostics();
+	private Diagnostics typeErrors = new Diagnostics();
+	private StringBuilder typeOutput = new StringBuilder();
+	private int errorCount;
+
+	public FusedSemanticVisitor(StructRegistry structs) {
+		this(new SymbolTable(), structs);
+	}
+
+	private FusedSemanticVisitor(SymbolTable symbols, StructRegistry structs) {
+		this.symbols = symbols;
+		this.structs = structs;
+		this.names = new NameAnalysisVisitor(symbols, structs) {
+			@Override
+			protected void error(String message) {
+				FusedSemanticVisitor.this.error(message);
+			}
+		};
+	}
+
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	@Override
+	protected void error(String message) {
+		nameErrors.report(Diagnostics.Code.SEMANTIC, null, message);
+		errorCount++;
+	}
+
+	private void typeError(String message) {
+		typeErrors.report(Diagnostics.Code.SEMANTIC, null, message);
+		errorCount++;
+	}
+
+	@Override
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	@Override
+	public Type visitProgram(Program p) {
+		try {
+			symbols.enterScope();
+			// names are resolved in structs before global variables, but types are
+			// checked the other way round
+			Diagnostics globalErrors = typeErrors;
+			typeErrors = new Diagnostics();
+			for (StructTypeDecl st : p.structTypeDecls) {
+				st.accept(this);
+			}
+			Diagnostics structErrors = typeErrors;
+			typeErrors = globalErrors;
+			for (VarDecl v : p.varDecls) {
+				v.accept(this);
+			}
+			typeErrors.addAll(structErrors);
+
+			names.declareBuiltins();
+			if (parallel) {
+				checkInParallel(p.funDecls);
+			} else {
+				for (FunDecl f : p.funDecls) {
+					f.accept(this);
+				}
+			}
+		} finally {
+			getDiagnostics().addAll(nameErrors);
+			getDiagnostics().addAll(typeErrors);
+			if (typeOutput.length() > 0) {
+				// printed after all the errors, as it always has been
+				getDiagnostics().flushRecords();
+				System.out.print(typeOutput);
+			}
+		}
+		return null;
+	}
+
+	private void checkInParallel(List<FunDecl> funs) {
+		// the bodies add nothing to the global scope, so all the functions can be
+		// declared up front, provided each body only sees what was declared before it
+		FunDecl[] f = funs.toArray(new FunDecl[0]);
+		Diagnostics[] declErrors = new Diagnostics[f.length];
+		int[] visible = new int[f.length];
+		Diagnostics errors = nameErrors;
+		for (int k = 0; k < f.length; k++) {
+			nameErrors = new Diagnostics();
+			symbols.put(new FunSymbol(f[k]), this);
+			declErrors[k] = nameErrors;
+			visible[k] = symbols.size();
+		}
+		nameErrors = errors;
+		symbols.freeze();
+
+		FusedSemanticVisitor[] checked = new FusedSemanticVisitor[f.length];
+		CheckFunctions all = new CheckFunctions(this, f, visible, checked, 0, f.length);
+		try {
+			ForkJoinPool.commonPool().invoke(all);
+		} catch (StackOverflowError e) {
+			// the worker threads may have less stack than this one
+			all.check();
+		}
+
+		for (int k = 0; k < f.length; k++) {
+			nameErrors.addAll(declErrors[k]);
+			nameErrors.addAll(checked[k].nameErrors);
+			typeErrors.addAll(checked[k].typeErrors);
+			typeOutput.append(checked[k].typeOutput);
+			errorCount += checked[k].errorCount;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class CheckFunctions extends RecursiveAction {
+		// fewest functions checked by one task; they share a table for their scopes,
+		// which is as large as the NameTable, so there are only a few tasks per thread
+		private static final int BATCH = 16;
+		private static final int TASKS_PER_THREAD = 4;
+
+		private final FusedSemanticVisitor global;
+		private final FunDecl[] funs;
+		private final int[] visible;
+		private final FusedSemanticVisitor[] checked;
+		private final int from;
+		private final int to;
+
+		CheckFunctions(FusedSemanticVisitor global, FunDecl[] funs, int[] visible, FusedSemanticVisitor[] checked,
+				int from, int to) {
+			this.global = global;
+			this.funs = funs;
+			this.visible = visible;
+			this.checked = checked;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int batch = Math.max(BATCH, funs.length / (TASKS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism()));
+			if (to - from > batch) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new CheckFunctions(global, funs, visible, checked, from, mid),
+						new CheckFunctions(global, funs, visible, checked, mid, to));
+				return;
+			}
+			check();
+		}
+
+		void check() {
+			SymbolTable scopes = new SymbolTable(global.symbols);
+			for (int k = from; k < to; k++) {
+				scopes.setVisible(visible[k]);
+				checked[k] = new FusedSemanticVisitor(scopes, global.structs);
+				checked[k].checkBody(funs[k]);
+			}
+		}
+	}
+
+	@Override
+	public Type visitStructTypeDecl(StructTypeDecl st) {
+		symbols.enterScope();
+		for (VarDecl v : st.variables) {
+			v.accept(this);
+		}
+		symbols.exitScope();
+		if (!structs.register(st)) {
+			error("Defining struct " + st.structDecl.structType + " more than once");
+		}
+		return st.structDecl;
+	}
+
+	@Override
+	public Type visitVarDecl(VarDecl vd) {
+		return declare(vd, false);
+	}
+
+	// clash is a redeclaration only the type checker sees
+	private Type declare(VarDecl vd, boolean clash) {
+		boolean redeclared = symbols.put(new VarSymbol(vd), this);
+		if (vd.type == BaseType.VOID) {
+			typeError("cannot create variable of void type " + vd.varName);
+		}
+		if (redeclared || clash) {
+			typeError("Declared symbol with same name as symbol declared in the same scope;" + vd.varName);
+		}
+		return vd.type;
+	}
+
+	@Override
+	public Type visitFunDecl(FunDecl p) {
+		symbols.put(new FunSymbol(p), this);
+		return checkBody(p);
+	}
+
+	private Type checkBody(FunDecl p) {
+		symbols.enterScope();
+		for (VarDecl v : p.params) {
+			// the type checker declares the function in the scope of its parameters
+			declare(v, v.nameId == p.nameId);
+		}
+		Type returnTypeActual = p.block.accept(this);
+		if (returnTypeActual == null) {
+			returnTypeActual = BaseType.VOID;
+		}
+		if (!p.type.Equals(returnTypeActual)) {
+			typeError("Function " + p.name
+					+ " has inconsistency between declared return type and actual return type, must be "
+					+ p.type.toString() + ", is " + returnTypeActual.toString());
+		}
+		symbols.exitScope();
+		return p.type;
+	}
+
+	@Override
+	public Type visitBlock(Block b) {
+		symbols.enterScope();
+		for (VarDecl v : b.vars) {
+			v.accept(this);
+		}
+		List<Type> returnVals = new LinkedList<Type>();
+		for (Stmt s : b.code) {
+			Type n = s.accept(this);
+			if (n != null) {
+				returnVals.add(n);
+			}
+		}
+		returnVals = new LinkedList<Type>(new HashSet<Type>(returnVals));
+		Type returnType = null;
+		if (returnVals.size() > 1) {
+			String e = "Multiple return types from block: ";
+			for (Type t : returnVals) {
+				e += t.toString();
+				e += ",";
+			}
+			typeError(e);
+		} else if (returnVals.size() == 1) {
+			returnType = returnVals.get(0);
+		}
+
+		symbols.exitScope();
+		return returnType;
+	}
+
+	@Override
+	public Type visitBaseType(BaseType bt) {
+		return bt;
+	}
+
+	@Override
+	public Type visitPointerType(PointerType p) {
+		return p;
+	}
+
+	@Override
+	public Type visitStructType(StructType s) {
+		return s;
+	}
+
+	@Override
+	public Type visitArrayType(ArrayType a) {
+		return a;
+	}
+
+	@Override
+	public Type visitIntLiteral(IntLiteral il) {
+		il.type = BaseType.INT;
+		return BaseType.INT;
+	}
+
+	@Override
+	public Type visitStrLiteral(StrLiteral sl) {
+		sl.type = Types.pointer(BaseType.CHAR);
+		return sl.type;
+	}
+
+	@Override
+	public Type visitChrLiteral(ChrLiteral cl) {
+		cl.type = BaseType.CHAR;
+		return BaseType.CHAR;
+	}
+
+	@Override
+	public Type visitVarExpr(VarExpr v) {
+		Symbol s = symbols.lookup(v.nameId);
+		if (s == null) {
+			error("Variable " + v.name + " has not been declared");
+		} else if (!(s instanceof VarSymbol)) {
+			error(v.name + " has not been declared as a variable");
+		} else {
+			v.vd = ((VarSymbol) s).variable;
+		}
+
+		if (v.vd != null) {
+			v.type = v.vd.type;
+			return v.type;
+		} else {
+			typeError("variable " + v.name + " does npot exist");
+			return BaseType.VOID;
+		}
+	}
+
+	@Override
+	public Type visitFunCallExpr(FunCallExpr fc) {
+		Symbol s = symbols.lookup(fc.nameId);
+		if (s == null) {
+			error("Function " + fc.name + " has not been declared");
+		} else if (!(s instanceof FunSymbol)) {
+			error(fc.name + " has not been declared as a function");
+		} else {
+			fc.fd = ((FunSymbol) s).function;
+		}
+
+		if (fc.fd != null && fc.args.size() == fc.fd.params.size()) {
+			fc.type = fc.fd.type;
+			for (int i = 0; i < fc.args.size(); i++) {
+				Type declaredType = fc.fd.params.get(i).type;
+				Type actualType = fc.args.get(i).accept(this);
+				if (!declaredType.Equals(actualType)) {
+					typeError("Actual and declared argument mismatch; argument " + fc.fd.params.get(i).varName
+							+ " of function " + fc.name + " is of type " + declaredType.toString() + ", not "
+							+ actualType.toString() + ".");
+				}
+			}
+			return fc.type;
+		}
+
+		// the arguments are not type checked then
+		for (Expr e : fc.args) {
+			e.accept(names);
+		}
+		if (fc.fd != null) {
+			fc.type = fc.fd.type;
+			typeError("Actual and declared arguments mismatch; function " + fc.name + " takes "
+					+ fc.fd.params.size() + " arguments, not " + fc.args.size() + ".");
+			return fc.type;
+		} else {
+			typeError("Function defintion for " + fc.name + " was not found");
+			return BaseType.VOID;
+		}
+	}
+
+	@Override
+	public Type visitBinOp(BinOp bo) {
+		Type left = bo.left.accept(this);
+		Type right = bo.right.accept(this);
+
+		if (left != right) {
+			typeError("operands of binary operation must match,(" + left.toString() + "," + right.toString() + ")");
+			return BaseType.VOID;
+		}
+		if (left == BaseType.VOID) {
+			typeError("operands of binary operation cannot be void");
+			return BaseType.VOID;
+		}
+
+		Type ret = BaseType.VOID;
+		switch (bo.op) {
+		case ADD:
+			if (left != BaseType.INT) {
+				typeError("Addition can only be done on operands of type Int, not " + left.toString());
+				break;
+			}
+			ret = BaseType.INT;
+			break;
+		case AND:
+			if (left != BaseType.INT) {
+				typeError("Logical AND can only be done on operands of type Int, not " + left.toString());
+				break;
+			}
+			ret = BaseType.INT;
+			break;
+		case DIV:
+			if (left != BaseType.INT) {
+				typeError("Division can only be done on operands of type Int, not " + left.toString());
+				break;
+			}
+			ret = BaseType.INT;
+			break;
+		case EQ:
+			ret = BaseType.INT;
+			break;
+		case GE:
+		case GT:
+		case LE:
+		case LT:
+			if (left != BaseType.INT) {
+				typeError("Comparison can only be done on operands of type Int, not " + left.toString());
+				break;
+			}
+			ret = BaseType.INT;
+			break;
+		case MOD:
+			if (left != BaseType.INT) {
+				typeError("Remainder division can only be done on operands of type Int, not " + left.toString());
+				break;
+			}
+			ret = BaseType.INT;
+			break;
+		case MUL:
+			if (left != BaseType.INT) {
+				typeError("Multiplication can only be done on operands of type Int, not " + left.toString());
+				break;
+			}
+			ret = BaseType.INT;
+			break;
+		case NE:
+			ret = BaseType.INT;
+			break;
+		case OR:
+			if (left != BaseType.INT) {
+				typeError("Logical OR can only be done on operands of type Int, not " + left.toString());
+				break;
+			}
+			ret = BaseType.INT;
+			break;
+		case SUB:
+			if (left != BaseType.INT) {
+				typeError("Subtraction can only be done on operands of type Int, not " + left.toString());
+				break;
+			}
+			ret = BaseType.INT;
+			break;
+		}
+		bo.type = ret;
+		return ret;
+	}
+
+	@Override
+	public Type visitArrayAccessExpr(ArrayAccessExpr ae) {
+		Type arrayType = ae.array.accept(this);
+		// the index is not type checked
+		ae.index.accept(names);
+		if (!(arrayType instanceof ArrayType)) {
+			typeError("Trying to access index of non-array expression, type " + arrayType.toString());
+			return BaseType.VOID;
+		}
+		ArrayType a = (ArrayType) arrayType;
+		ae.type = a.type;
+
+		return ae.type;
+	}
+
+	@Override
+	public Type visitFieldAccessExpr(FieldAccessExpr fa) {
+		Type left = fa.struct.accept(this);
+		if (!(left instanceof StructType)) {
+			typeError("Cannot access field of non-struct object " + left.toString());
+			return BaseType.VOID;
+		}
+
+		StructType st = (StructType) left;
+		if (structs.decl(st) == null) {
+			typeError("Struct " + st.structType + " has not been defined");
+			return BaseType.VOID;
+		}
+
+		VarDecl member = structs.field(st, fa.fieldId);
+		if (member == null) {
+			typeError("Member " + fa.field + " does not exist in struct " + st.structType);
+			return BaseType.VOID;
+		}
+
+		return member.type;
+	}
+
+	@Override
+	public Type visitSizeOfExpr(SizeOfExpr so) {
+		so.type = BaseType.INT;
+		return BaseType.INT;
+	}
+
+	@Override
+	public Type visitTypecastExpr(TypecastExpr tc) {
+		tc.toConvert.accept(this);
+		tc.type = tc.to;
+		return tc.type;
+	}
+
+	@Override
+	public Type visitExprStmt(ExprStmt e) {
+		e.expr.accept(this);
+		return null;
+	}
+
+	@Override
+	public Type visitWhile(While w) {
+		Type e = w.expr.accept(this);
+		if (e != BaseType.INT) {
+			typeError("WHILE condition expression must evaluate to type Int, not " + e.toString());
+		}
+		return w.code.accept(this);
+	}
+
+	@Override
+	public Type visitIf(If i) {
+		Type e = i.expr.accept(this);
+		if (e != BaseType.INT) {
+			typeOutput.append(e);
+			typeError("IF condition expression must evaluate to type Int, not " + e.toString());
+		}
+
+		Type retType = i.code.accept(this);
+		Type elseRetType = null;
+		if (i.elseCode != null) {
+			elseRetType = i.elseCode.accept(this);
+		}
+		if (retType != null && elseRetType != null && retType != elseRetType) {
+			typeError("Code in IF statement returns conflicting types: " + retType.toString() + " and "
+					+ elseRetType.toString());
+		}
+
+		return retType;
+	}
+
+	@Override
+	public Type visitAssign(Assign a) {
+		if (!(a.left instanceof VarExpr || a.left instanceof FieldAccessExpr || a.left instanceof ArrayAccessExpr
+				|| a.left instanceof ValueAtExpr)) {
+			// neither side is type checked then
+			a.left.accept(names);
+			a.right.accept(names);
+			typeError("Cannot assign to a " + a.toString()
+					+ ", must be a variable, field, array element, or pointed to by pointer");
+			return null;
+		}
+
+		Type left = a.left.accept(this);
+		Type right = a.right.accept(this);
+		if (!left.Equals(right)) {
+			typeError("assignment attempts to assign an expression of type " + right.toString()
+					+ " to expression of type " + left.toString());
+		}
+		return null;
+	}
+
+	@Override
+	public Type visitReturn(Return r) {
+		if (r.expr != null) {
+			return r.expr.accept(this);
+		} else {
+			return BaseType.VOID;
+		}
+	}
+
+	@Override
+	public Type visitValueAtExpr(ValueAtExpr va) {
+		Type t = va.expr.accept(this);
+
+		if (!(t instanceof PointerType)) {
+			typeError("Cannot access address of non-pointer type");
+			return BaseType.VOID;
+		}
+		PointerType p = (PointerType) t;
+		va.type = p.pointerToType;
+		return va.type;
+	}
+
+}
@@ -7,69 +7,51 @@ import javax.swing.event.ListSelectionEvent;
 
 public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
-	private Stack<Scope> scopeStack;
+	private SymbolTable symbols;
 
-	// this exists to make sure there is no more than one struct stype of a given
-	// name
-	private List<StructTypeDecl> structs = new LinkedList<StructTypeDecl>();
+	// the structs of the program, shared with the type checker; registering them
+	// here makes sure there is no more than one struct type of a given name
+	private final StructRegistry structs;
+
+	public NameAnalysisVisitor(StructRegistry structs) {
+		this.structs = structs;
+	}
+
+	// resolves names in the scopes of the given table, for FusedSemanticVisitor
+	NameAnalysisVisitor(SymbolTable symbols, StructRegistry structs) {
+		this.symbols = symbols;
+		this.structs = structs;
+	}
 
 	private Void putSymbol(Symbol s) {
-		scopeStack.peek().put(s, this);
+		symbols.put(s, this);
 		return null;
 	}
 
 	@Override
 	public Void visitProgram(Program p) {
-		scopeStack = new Stack<Scope>();
-		scopeStack.add(new Scope());
+		symbols = new SymbolTable();
+		symbols.enterScope();
 		for (StructTypeDecl std : p.structTypeDecls) {
 			std.accept(this);
 		}
 		for (VarDecl vd : p.varDecls) {
 			vd.accept(this);
 		}
-		// declare built-in functions
-		// void print_s(char* s);
-		// void print_i(int i);
-		// void print_c(char c);
-		// char read_c();
-		// int read_i();
-		// void* mcmalloc(int size);
-
-		List<VarDecl> argsTemp = new LinkedList<VarDecl>();
-		argsTemp.add(new VarDecl(new PointerType(BaseType.CHAR), "s"));
-		putSymbol(new FunSymbol(new FunDecl(BaseType.VOID, "print_s", new LinkedList<VarDecl>(argsTemp),
-				new Block(new LinkedList<VarDecl>(), new LinkedList<Stmt>()))));
-
-		argsTemp = new LinkedList<VarDecl>();
-		argsTemp.add(new VarDecl(BaseType.INT, "i"));
-		putSymbol(new FunSymbol(new FunDecl(BaseType.VOID, "print_i", new LinkedList<VarDecl>(argsTemp),
-				new Block(new LinkedList<VarDecl>(), new LinkedList<Stmt>()))));
-
-		argsTemp = new LinkedList<VarDecl>();
-		argsTemp.add(new VarDecl(BaseType.CHAR, "c"));
-		putSymbol(new FunSymbol(new FunDecl(BaseType.VOID, "print_c", new LinkedList<VarDecl>(argsTemp),
-				new Block(new LinkedList<VarDecl>(), new LinkedList<Stmt>()))));
-
-		putSymbol(new FunSymbol(new FunDecl(BaseType.CHAR, "read_c", new LinkedList<VarDecl>(),
-				new Block(new LinkedList<VarDecl>(), new LinkedList<Stmt>()))));
-
-		List<Stmt> junkCode = new LinkedList<Stmt>();
-		junkCode.add(new Return(new IntLiteral(1)));
-		putSymbol(new FunSymbol(new FunDecl(BaseType.INT, "read_i", new LinkedList<VarDecl>(),
-				new Block(new LinkedList<VarDecl>(), junkCode))));
-
-		argsTemp = new LinkedList<VarDecl>();
-		argsTemp.add(new VarDecl(BaseType.INT, "size"));
-		putSymbol(new FunSymbol(new FunDecl(new PointerType(BaseType.VOID), "mcmalloc",
-				new LinkedList<VarDecl>(argsTemp), new Block(new LinkedList<VarDecl>(), new LinkedList<Stmt>()))));
-
+		declareBuiltins();
 		for (FunDecl fd : p.funDecls) {
 			fd.accept(this);
 		}
 		return null;
 	}
 
+	void declareBuiltins() {
+		// declare built-in functions
+		for (Builtin b : Builtin.values()) {
+			putSymbol(new FunSymbol(b.decl));
+		}
+	}
+
 	@Override
 	public Void visitBaseType(BaseType bt) {
 		return null;
@@ -94,20 +76,16 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	@Override
 	public Void visitStructTypeDecl(StructTypeDecl st) {
-		scopeStack.add(new Scope());
+		symbols.enterScope();
 		st.structDecl.accept(this);
 		for (VarDecl vd : st.variables) {
 			vd.accept(this);
 		}
 
-		scopeStack.pop();
-		// I wish I had LINQ to search over structdecl.name...
-		// if(structs.contains(x=>x.structDecl.structType == st.structDecl.structType ))
-		// {
-		if (structs.stream().anyMatch(n -> n.structDecl.structType == st.structDecl.structType)) {
+		symbols.exitScope();
+		if (!structs.register(st)) {
 			error("Defining struct " + st.structDecl.structType + " more than once");
 		}
-		structs.add(st);
 		return null;
 	}
 
@@ -123,12 +101,12 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 		putSymbol(new FunSymbol(p));
 		p.type.accept(this);
 		// parameters exist in the functions scope
-		scopeStack.add(new Scope(scopeStack.peek()));
+		symbols.enterScope();
 		for (VarDecl vd : p.params) {
 			vd.accept(this);
 		}
 		p.block.accept(this);
-		scopeStack.pop();
+		symbols.exitScope();
 		return null;
 	}
 
@@ -158,7 +136,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 //			error("Using non-variable identifier as a variable (possibly a function?)");
 //		}
 
-		Symbol s = scopeStack.peek().lookup(v.name);
+		Symbol s = symbols.lookup(v.nameId);
 		// if (s != new VarSymbol(v.vd)) {
 		if (s == null) {
 			error("Variable " + v.name + " has not been declared");
@@ -176,7 +154,7 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	@Override
 	public Void visitFunCallExpr(FunCallExpr fc) {
-		Symbol s = scopeStack.peek().lookup(fc.name);
+		Symbol s = symbols.lookup(fc.nameId);
 
 //		if (fs != null) {
 //			fc.vd = fs.function;
@@ -280,14 +258,14 @@ public class NameAnalysisVisitor extends BaseSemanticVisitor<Void> {
 
 	@Override
 	public Void visitBlock(Block b) {
-		scopeStack.add(new Scope(scopeStack.peek()));
+		symbols.enterScope();
 		for (VarDecl vd : b.vars) {
 			vd.accept(this);
 		}
 		for (Stmt s : b.code) {
 			s.accept(this);
 		}
-		scopeStack.pop();
+		symbols.exitScope();
 		return null;
 	}
 
@@ -2,19 +2,58 @@ package sem;
 
 import java.util.ArrayList;
 
+import util.Diagnostics;
+
 public class SemanticAnalyzer {
+
+	private boolean fused = false;
+	private boolean parallel = false;
+	private StructRegistry structs;
+	private Diagnostics diagnostics;
+
+	/*
+	 * Analyse in a single walk with a FusedSemanticVisitor, rather than a name
+	 * analysis pass followed by a type checking pass.
+	 */
+	public void setFused(boolean fused) {
+		this.fused = fused;
+	}
+
+	/*
+	 * Check function bodies in parallel, which implies the fused analysis.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	/*
+	 * Reports errors to the given collector, rather than printing them as they are
+	 * found.
+	 */
+	public void setDiagnostics(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
 	
 	public int analyze(ast.Program prog) {
 		// List of visitors
-		ArrayList<SemanticVisitor> visitors = new ArrayList<SemanticVisitor>() {{
-			add(new NameAnalysisVisitor());
-			add(new TypeCheckVisitor());
-		}};
+		ArrayList<BaseSemanticVisitor<?>> visitors = new ArrayList<BaseSemanticVisitor<?>>();
+		// one registry for the whole analysis, filled in by the name analysis
+		structs = new StructRegistry();
+		if (fused || parallel) {
+			FusedSemanticVisitor v = new FusedSemanticVisitor(structs);
+			v.setParallel(parallel);
+			visitors.add(v);
+		} else {
+			visitors.add(new NameAnalysisVisitor(structs));
+			visitors.add(new TypeCheckVisitor(structs));
+		}
 		// Error accumulator
 		int errors = 0;
 		
 		// Apply each visitor to the AST
-		for (SemanticVisitor v : visitors) {
+		for (BaseSemanticVisitor<?> v : visitors) {
+			if (diagnostics != null)
+				v.setDiagnostics(diagnostics);
 			prog.accept(v);
 			errors += v.getErrorCount();
 		}
@@ -22,4 +61,11 @@ public class SemanticAnalyzer {
 		// Return the number of errors.
 		return errors;
 	}
+
+	/*
+	 * The structs of the last program analysed, for the code generator.
+	 */
+	public StructRegistry getStructs() {
+		return structs;
+	}
 }
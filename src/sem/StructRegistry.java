@@ -0,0 +1,110 @@
+package sem;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ast.*;
+
+/**
+ * The structs of a program, by NameTable id, filled in by the semantic analysis and
+ * handed on to the code generator. Fields are found by name id in constant time, and
+ * the layout of a struct (its size and the offsets of its fields) is worked out once,
+ * the first time it is needed, so that structs may contain structs declared later.
+ */
+public class StructRegistry {
+
+	private static class Struct {
+		final StructTypeDecl decl;
+		// the first field of each name
+		final Map<Integer, VarDecl> fields = new HashMap<Integer, VarDecl>();
+		int size = -1; // until laid out
+		boolean layingOut;
+
+		Struct(StructTypeDecl decl) {
+			this.decl = decl;
+		}
+	}
+
+	private final Map<Integer, Struct> structs = new HashMap<Integer, Struct>();
+
+	/*
+	 * Adds a struct declaration; false if one of the same name is already there, in
+	 * which case the first one stays.
+	 */
+	public boolean register(StructTypeDecl st) {
+		if (structs.containsKey(st.structDecl.structId)) {
+			return false;
+		}
+		Struct s = new Struct(st);
+		for (VarDecl v : st.variables) {
+			s.fields.putIfAbsent(v.nameId, v);
+		}
+		structs.put(st.structDecl.structId, s);
+		return true;
+	}
+
+	/*
+	 * The declaration of the struct, or null if it has not been declared.
+	 */
+	public StructTypeDecl decl(StructType type) {
+		Struct s = structs.get(type.structId);
+		return s == null ? null : s.decl;
+	}
+
+	/*
+	 * The field of the given name, or null if there is no such struct or field.
+	 */
+	public VarDecl field(StructType type, int fieldId) {
+		Struct s = structs.get(type.structId);
+		return s == null ? null : s.fields.get(fieldId);
+	}
+
+	/*
+	 * Offset of the field from the start of the struct, fields are packed in order.
+	 */
+	public int offsetOf(StructType type, int fieldId) {
+		layOut(type);
+		return field(type, fieldId).offset;
+	}
+
+	public int sizeOf(Type type) {
+		// if it is a pointer, allocate 1 word of memory
+		// if it is an array, fine the underlying type, and allocate its size * the
+		// length words of memory
+		// primitive type gets 1 word of memory
+
+		if (type == BaseType.INT || type instanceof PointerType) {
+			return 4;
+		} else if (type == BaseType.CHAR) {
+			return 1;
+		} else if (type instanceof ArrayType) {
+			return ((ArrayType) type).length * sizeOf(((ArrayType) type).type);
+		} else if (type instanceof StructType) {
+			return layOut((StructType) type).size;
+		}
+
+		System.out.println("WARNING: OBJECT HAS NO SIZE");
+		return 0;
+	}
+
+	private Struct layOut(StructType type) {
+		Struct s = structs.get(type.structId);
+		if (s == null) {
+			throw new IllegalStateException("struct " + type.structType + " has not been declared");
+		}
+		if (s.size < 0) {
+			if (s.layingOut) {
+				throw new IllegalStateException("struct " + type.structType + " contains itself");
+			}
+			s.layingOut = true;
+			int offset = 0;
+			for (VarDecl v : s.decl.variables) {
+				v.offset = offset;
+				offset += sizeOf(v.type);
+			}
+			s.size = offset;
+			s.layingOut = false;
+		}
+		return s;
+	}
+}
@@ -2,9 +2,14 @@ package sem;
 
 public abstract class Symbol {
 	public String name;
+	public final int nameId; // see util.NameTable
+	int depth; // of the scope it is bound in, see SymbolTable
+	Symbol shadowed; // the binding of the same name it hides, see SymbolTable
+	int position; // in the undo log of its SymbolTable
 	
 	
-	public Symbol(String name) {
+	public Symbol(String name, int nameId) {
 		this.name = name;
+		this.nameId = nameId;
 	}
 }
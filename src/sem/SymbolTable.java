@@ -0,0 +1,131 @@
+package sem;
+
+import java.util.Arrays;
+
+/**
+ * All the scopes of a visitor in one table, indexed by NameTable id. Each name holds
+ * the stack of its bindings, innermost first, chained through Symbol.shadowed, so a
+ * lookup is one array access however deep the nesting. Every put is recorded in an
+ * undo log, and leaving a scope pops the bindings made since it was entered.
+ *
+ * A table can be frozen and shared between threads, each with a table of its own
+ * for the scopes it opens on top (see FusedSemanticVisitor).
+ */
+public class SymbolTable {
+
+	// innermost binding of each name id, or null
+	private Symbol[] bindings = new Symbol[256];
+
+	// name ids in the order they were bound, and where each open scope starts in it
+	private int[] log = new int[64];
+	private int logSize;
+	private int[] scopeStarts = new int[16];
+	private int depth;
+
+	private boolean frozen;
+	// the frozen table this one opens scopes on, and how many of its bindings are seen
+	private final SymbolTable outer;
+	private int visible;
+
+	public SymbolTable() {
+		outer = null;
+	}
+
+	public SymbolTable(SymbolTable outer) {
+		if (!outer.frozen) {
+			throw new IllegalStateException("the outer table must be frozen");
+		}
+		this.outer = outer;
+		this.visible = outer.logSize;
+		this.depth = outer.depth;
+	}
+
+	/*
+	 * No more changes, so that tables opening scopes on this one can read it
+	 * concurrently.
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+
+	/*
+	 * Number of bindings made so far.
+	 */
+	public int size() {
+		return logSize;
+	}
+
+	/*
+	 * Only the first n bindings of the outer table are seen from this one.
+	 */
+	public void setVisible(int n) {
+		visible = n;
+	}
+
+	public void enterScope() {
+		checkNotFrozen();
+		if (depth == scopeStarts.length) {
+			scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+		}
+		scopeStarts[depth++] = logSize;
+	}
+
+	public void exitScope() {
+		checkNotFrozen();
+		int start = scopeStarts[--depth];
+		while (logSize > start) {
+			int id = log[--logSize];
+			bindings[id] = bindings[id].shadowed;
+		}
+	}
+
+	public Symbol lookup(int nameId) {
+		Symbol sym = nameId < bindings.length ? bindings[nameId] : null;
+		if (sym == null && outer != null) {
+			sym = outer.lookupBefore(nameId, visible);
+		}
+		return sym;
+	}
+
+	// innermost of the first n bindings of the name
+	private Symbol lookupBefore(int nameId, int n) {
+		Symbol sym = nameId < bindings.length ? bindings[nameId] : null;
+		while (sym != null && sym.position >= n) {
+			sym = sym.shadowed;
+		}
+		return sym;
+	}
+
+	public Symbol lookupCurrent(int nameId) {
+		Symbol sym = lookup(nameId);
+		return sym != null && sym.depth == depth ? sym : null;
+	}
+
+	// true if the name was already declared in the current scope, which is reported
+	public boolean put(Symbol sym, BaseSemanticVisitor b) {
+		checkNotFrozen();
+		boolean redeclared = lookupCurrent(sym.nameId) != null;
+		if (redeclared) {
+			b.error("Declared symbol with same name as symbol declared in the same scope;"+sym.name);
+		}
+		// a redeclaration shadows the first one until the scope is left, as if replaced
+		if (sym.nameId >= bindings.length) {
+			bindings = Arrays.copyOf(bindings, Math.max(bindings.length * 2, sym.nameId + 1));
+		}
+		if (logSize == log.length) {
+			log = Arrays.copyOf(log, logSize * 2);
+		}
+		sym.depth = depth;
+		sym.position = logSize;
+		sym.shadowed = bindings[sym.nameId];
+		bindings[sym.nameId] = sym;
+		log[logSize++] = sym.nameId;
+		return redeclared;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("the symbol table is frozen");
+		}
+	}
+}
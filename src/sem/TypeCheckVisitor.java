@@ -6,11 +6,16 @@ import ast.*;
 
 public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
-	private Stack<Scope> scopeStack = new Stack<Scope>();
-	private List<StructTypeDecl> structs = new LinkedList<StructTypeDecl>();
+	private SymbolTable symbols = new SymbolTable();
+	// registered by the name analysis, which runs first
+	private final StructRegistry structs;
+
+	public TypeCheckVisitor(StructRegistry structs) {
+		this.structs = structs;
+	}
 
 	private Void putSymbol(Symbol s) {
-		scopeStack.peek().put(s, this);
+		symbols.put(s, this);
 		return null;
 	}
 
@@ -21,22 +26,18 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
 	@Override
 	public Type visitStructTypeDecl(StructTypeDecl st) {
-		scopeStack.add(new Scope());
+		symbols.enterScope();
 		for (VarDecl v : st.variables) {
 			v.accept(this);
 		}
-		scopeStack.pop();
-		
-		
-		
-		structs.add(st);
+		symbols.exitScope();
 		return st.structDecl.accept(this);
 
 	}
 
 	@Override
 	public Type visitBlock(Block b) {
-		scopeStack.add(new Scope());
+		symbols.enterScope();
 		for (VarDecl v : b.vars) {
 			v.accept(this);
 		}
@@ -65,7 +66,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 			returnType = returnVals.get(0);
 		}
 
-		scopeStack.pop();
+		symbols.exitScope();
 		return returnType;
 	}
 
@@ -73,7 +74,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 	public Type visitFunDecl(FunDecl p) {
 		// TODO: not sure how scoping will interact with params here;
 		// we make a new scope, so params can be shadowed?
-		scopeStack.push(new Scope());
+		symbols.enterScope();
 		putSymbol(new FunSymbol(p));
 		for (VarDecl v : p.params) {
 			v.accept(this);
@@ -87,13 +88,13 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 					+ " has inconsistency between declared return type and actual return type, must be "
 					+ p.type.toString() + ", is " + returnTypeActual.toString());
 		}
-		scopeStack.pop();
+		symbols.exitScope();
 		return p.type;
 	}
 
 	@Override
 	public Type visitProgram(Program p) {
-		scopeStack.add(new Scope());
+		symbols.enterScope();
 		for (VarDecl v : p.varDecls) {
 			v.accept(this);
 		}
@@ -152,7 +153,7 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
 	@Override
 	public Type visitStrLiteral(StrLiteral sl) {
-		sl.type = new PointerType(BaseType.CHAR);
+		sl.type = Types.pointer(BaseType.CHAR);
 		return sl.type;
 	}
 
@@ -301,23 +302,13 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 
 		StructType st = (StructType) left;
 
-		StructTypeDecl decleration = null;
-		// all this nonsense instead of a simple .where() function would have sufficed
-		Optional<StructTypeDecl> optional = structs.stream().filter(x -> (x.structDecl.Equals(st))).findFirst();
-
-		if (optional.isPresent()) {
-			decleration = optional.get();
-		} else {
+		if (structs.decl(st) == null) {
 			error("Struct " + st.structType + " has not been defined");
 			return BaseType.VOID;
 		}
 
-		VarDecl member = null;
-		List<VarDecl> members = new LinkedList<VarDecl>(decleration.variables);
-		Optional<VarDecl> optional2 = members.stream().filter(x -> x.varName.equals(fa.field)).findFirst();
-		if (optional2.isPresent()) {
-			member = optional2.get();
-		} else {
+		VarDecl member = structs.field(st, fa.fieldId);
+		if (member == null) {
 			error("Member " + fa.field + " does not exist in struct " + st.structType);
 			return BaseType.VOID;
 		}
@@ -359,6 +350,8 @@ public class TypeCheckVisitor extends BaseSemanticVisitor<Type> {
 	public Type visitIf(If i) {
 		Type e = i.expr.accept(this);
 		if (e != BaseType.INT) {
+			// printed after the errors so far, as it always has been
+			getDiagnostics().flushRecords();
 			System.out.print(e);
 			error("IF condition expression must evaluate to type Int, not " + e.toString());
 		}
@@ -7,7 +7,7 @@ public class VarSymbol extends Symbol {
 	VarDecl variable;
 
 	public VarSymbol(VarDecl v) {
-		super(v.varName);
+		super(v.varName, v.nameId);
 		variable = v;
 	}
 
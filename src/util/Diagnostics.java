@@ -0,0 +1,195 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the errors of a compilation as records of what went wrong and where,
+ * rather than as printed text. They are rendered, in the order they were reported,
+ * by flush(), which writes to each stream once. An immediate collector renders each
+ * record as it comes instead, which is what the phases use unless they are given one.
+ *
+ * At most limit records are kept, any more are only counted, and a line saying how
+ * many were left out is rendered after the rest.
+ */
+public final class Diagnostics {
+
+    public enum Phase {
+        LEXER("Lexing error: ", false),
+        PARSER("Parsing error: ", false),
+        SEMANTIC("semantic error: ", true);
+
+        final String prefix;
+        final boolean stderr;
+
+        Phase(String prefix, boolean stderr) {
+            this.prefix = prefix;
+            this.stderr = stderr;
+        }
+    }
+
+    public enum Code {
+        UNRECOGNISED_CHARACTER(Phase.LEXER),    // the character
+        UNKNOWN_ESCAPE(Phase.LEXER),            // the character after the backslash
+        UNEXPECTED_TOKEN(Phase.PARSER),         // the expected token classes, the token found
+        EXPRESSION_TOO_DEEP(Phase.PARSER),
+        TOO_MANY_ERRORS(Phase.PARSER),          // not held to the limit, it is one already
+        SEMANTIC(Phase.SEMANTIC);               // the message
+
+        public final Phase phase;
+
+        Code(Phase phase) {
+            this.phase = phase;
+        }
+    }
+
+    public static final class Diagnostic {
+        public final Code code;
+        public final Position position; // null if not known
+        private final Object[] args;
+
+        Diagnostic(Code code, Position position, Object[] args) {
+            this.code = code;
+            this.position = position;
+            this.args = args;
+        }
+
+        void render(StringBuilder sb) {
+            switch (code) {
+                case UNRECOGNISED_CHARACTER:
+                    sb.append("Lexing error: unrecognised character (").append(args[0]).append(") at ").append(position);
+                    break;
+                case UNKNOWN_ESCAPE:
+                    sb.append("error from string literal escapes:").append(args[0]);
+                    break;
+                case UNEXPECTED_TOKEN:
+                    sb.append("Parsing error: expected (").append(args[0]).append(") found (").append(args[1])
+                            .append(") at ").append(position);
+                    break;
+                case EXPRESSION_TOO_DEEP:
+                    sb.append("Failed to parse Expression due to infinite recursion\n");
+                    break;
+                case TOO_MANY_ERRORS:
+                    sb.append("Parsing error: too many errors, giving up");
+                    break;
+                case SEMANTIC:
+                    sb.append("semantic error: ").append(args[0]);
+                    break;
+            }
+            sb.append(System.lineSeparator());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            render(sb);
+            return sb.toString().trim();
+        }
+    }
+
+    private static final Phase[] phases = Phase.values();
+
+    private final boolean immediate;
+    private final List<Diagnostic> records = new ArrayList<Diagnostic>();
+    private int limit = 0;
+    // records kept so far, flushed or not
+    private int kept = 0;
+    // records left out by the limit, per phase
+    private final int[] dropped = new int[phases.length];
+
+    public Diagnostics() {
+        this(false);
+    }
+
+    private Diagnostics(boolean immediate) {
+        this.immediate = immediate;
+    }
+
+    public static Diagnostics immediate() {
+        return new Diagnostics(true);
+    }
+
+    /*
+     * Keeps at most the given number of records, 0 (the default) for no limit.
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public void report(Code code, Position position, Object... args) {
+        add(new Diagnostic(code, position, args));
+    }
+
+    /*
+     * Moves the records of another collector over to this one, in order.
+     */
+    public void addAll(Diagnostics other) {
+        for (Diagnostic d : other.records)
+            add(d);
+        for (int i = 0; i < dropped.length; i++)
+            dropped[i] += other.dropped[i];
+        other.records.clear();
+        Arrays.fill(other.dropped, 0);
+    }
+
+    private void add(Diagnostic d) {
+        if (limit > 0 && kept >= limit && d.code != Code.TOO_MANY_ERRORS) {
+            dropped[d.code.phase.ordinal()]++;
+            return;
+        }
+        records.add(d);
+        kept++;
+        if (immediate)
+            flush();
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /*
+     * Renders the records so far, and forgets them.
+     */
+    public void flush() {
+        flush(true);
+    }
+
+    /*
+     * The same, but leaves the lines saying how many were left out to the next
+     * flush(): for a phase printing something else of its own in between, which has
+     * to come after the errors reported before it.
+     */
+    public void flushRecords() {
+        flush(false);
+    }
+
+    private void flush(boolean withDropped) {
+        if (records.isEmpty() && !(withDropped && anyDropped()))
+            return;
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        for (Diagnostic d : records)
+            d.render(d.code.phase.stderr ? err : out);
+        for (Phase p : phases) {
+            int n = withDropped ? dropped[p.ordinal()] : 0;
+            if (n > 0) {
+                (p.stderr ? err : out).append(p.prefix).append("too many errors, ").append(n)
+                        .append(" more not reported").append(System.lineSeparator());
+                dropped[p.ordinal()] = 0;
+            }
+        }
+        records.clear();
+        if (out.length() > 0)
+            System.out.print(out);
+        if (err.length() > 0)
+            System.err.print(err);
+    }
+
+    private boolean anyDropped() {
+        for (int n : dropped)
+            if (n > 0)
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,137 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifiers. Every distinct name is given a dense int id, starting from 0,
+ * and a single canonical String, so that names can be compared and indexed by id
+ * from the lexer through to the code generator instead of being hashed again.
+ */
+public final class NameTable {
+
+    // canonical name of each id. Volatile, so that name() can read it without taking
+    // the lock: an id is only ever handed out after its name has been stored
+    private static volatile String[] names = new String[1024];
+    private static int size = 0;
+
+    // open addressing table over the ids, each slot holds id+1 or 0 when empty
+    private static int[] slots = new int[2048];
+    private static int[] hashes = new int[2048];
+
+    private NameTable() {
+    }
+
+    /*
+     * Id of the name held in buf[start, start+length), entered into the table if new.
+     */
+    public static synchronized int intern(char[] buf, int start, int length) {
+        // same hash as String.hashCode(), so that both kinds of lookup agree
+        int h = 0;
+        for (int i = start; i < start + length; i++)
+            h = 31 * h + buf[i];
+
+        int mask = slots.length - 1;
+        for (int i = mix(h) & mask; ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0)
+                return add(new String(buf, start, length), h, i);
+            if (hashes[i] == h && matches(names[s - 1], buf, start, length))
+                return s - 1;
+        }
+    }
+
+    public static synchronized int intern(String name) {
+        int h = name.hashCode();
+        int mask = slots.length - 1;
+        for (int i = mix(h) & mask; ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0)
+                return add(name, h, i);
+            if (hashes[i] == h && names[s - 1].equals(name))
+                return s - 1;
+        }
+    }
+
+    /*
+     * The canonical String of the given id.
+     */
+    public static String name(int id) {
+        return names[id];
+    }
+
+    public static synchronized int size() {
+        return size;
+    }
+
+    /*
+     * Forgets the names given an id of size or more, with size what size() was before
+     * a compilation that is over, so that the table does not grow for the life of the
+     * JVM. The names interned before it keep their ids; the compiler's own names must
+     * be among them.
+     */
+    public static synchronized void reset(int size) {
+        if (size >= NameTable.size)
+            return;
+        String[] n = names;
+        Arrays.fill(n, size, NameTable.size, null);
+        NameTable.size = size;
+        Arrays.fill(slots, 0);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int h = n[id].hashCode();
+            int i = mix(h) & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = id + 1;
+            hashes[i] = h;
+        }
+    }
+
+    private static int add(String name, int h, int slot) {
+        int id = size++;
+        String[] n = names;
+        if (id == n.length)
+            n = Arrays.copyOf(n, id * 2);
+        n[id] = name;
+        names = n;
+        slots[slot] = id + 1;
+        hashes[slot] = h;
+        // keep the table at most half full
+        if (2 * size > slots.length)
+            rehash();
+        return id;
+    }
+
+    private static void rehash() {
+        int[] oldSlots = slots;
+        int[] oldHashes = hashes;
+        slots = new int[oldSlots.length * 2];
+        hashes = new int[oldSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int j = 0; j < oldSlots.length; j++) {
+            if (oldSlots[j] == 0)
+                continue;
+            int i = mix(oldHashes[j]) & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = oldSlots[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+
+    // spreads String hashes, whose low bits are poor for short names
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String name, char[] buf, int start, int length) {
+        if (name.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (name.charAt(i) != buf[start + i])
+                return false;
+        return true;
+    }
+
+}